@@ -0,0 +1,10 @@
+package domain;
+
+import javax.persistence.Embeddable;
+
+@Embeddable
+public class Address
+{
+  String street;
+  String city;
+}
@@ -0,0 +1,15 @@
+package domain;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+
+@Entity
+public class DomainEntity
+{
+  @Id
+  @GeneratedValue(generator = "domain-sequence")
+  Long id;
+
+  Address address;
+}
@@ -0,0 +1,9 @@
+package domain;
+
+public class Service
+{
+  public DomainEntity create()
+  {
+    return new DomainEntity();
+  }
+}
@@ -0,0 +1,9 @@
+@GenericGenerator(
+    name = "domain-sequence",
+    strategy = "sequence",
+    parameters = @Parameter(name = "sequence_name", value = "domain_sequence")
+    )
+package domain.generators;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
@@ -0,0 +1,19 @@
+package main;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+
+import domain.DomainEntity;
+
+@Entity
+public class MainEntity
+{
+  @Id
+  @GeneratedValue
+  long id;
+
+  @ManyToOne
+  DomainEntity domainEntity;
+}
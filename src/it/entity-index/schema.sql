@@ -0,0 +1,20 @@
+create sequence domain_sequence start 1 increment 1;
+create sequence hibernate_sequence start 1 increment 1;
+
+    create table DomainEntity (
+        id int8 not null,
+        city varchar(255),
+        street varchar(255),
+        primary key (id)
+    );
+
+    create table MainEntity (
+        id int8 not null,
+        domainEntity_id int8,
+        primary key (id)
+    );
+
+    alter table MainEntity 
+        add constraint FKfxs06i39x4q6lwhsvinnbn02i 
+        foreign key (domainEntity_id) 
+        references DomainEntity;
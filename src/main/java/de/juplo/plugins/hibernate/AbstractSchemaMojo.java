@@ -3,32 +3,42 @@ package de.juplo.plugins.hibernate;
 
 import com.pyx4j.log4j.MavenLogAppender;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.NoSuchAlgorithmException;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import javax.persistence.Embeddable;
-import javax.persistence.Entity;
-import javax.persistence.MappedSuperclass;
 import javax.persistence.spi.PersistenceUnitTransactionType;
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.model.Resource;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -46,10 +56,13 @@ import org.hibernate.boot.registry.BootstrapServiceRegistryBuilder;
 import org.hibernate.boot.registry.StandardServiceRegistry;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.boot.registry.classloading.spi.ClassLoaderService;
-import org.hibernate.boot.registry.classloading.spi.ClassLoadingException;
 import org.hibernate.boot.registry.selector.spi.StrategySelector;
 import org.hibernate.boot.spi.MetadataImplementor;
 import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.dialect.DB2Dialect;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.dialect.SQLServerDialect;
 import static org.hibernate.cfg.AvailableSettings.DIALECT;
 import static org.hibernate.cfg.AvailableSettings.DRIVER;
 import static org.hibernate.cfg.AvailableSettings.FORMAT_SQL;
@@ -67,17 +80,19 @@ import static org.hibernate.cfg.AvailableSettings.USER;
 import static org.hibernate.cfg.AvailableSettings.URL;
 import org.hibernate.engine.config.spi.ConfigurationService;
 import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.jdbc.spi.JdbcServices;
+import org.hibernate.engine.jdbc.spi.SqlStatementLogger;
 import org.hibernate.internal.util.config.ConfigurationException;
 import org.hibernate.jpa.boot.internal.ParsedPersistenceXmlDescriptor;
 import org.hibernate.jpa.boot.internal.PersistenceXmlParser;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
 import org.hibernate.tool.schema.TargetType;
 import org.hibernate.tool.schema.internal.ExceptionHandlerCollectingImpl;
-import org.hibernate.tool.schema.internal.exec.ScriptTargetOutputToFile;
 import org.hibernate.tool.schema.spi.ExecutionOptions;
 import org.hibernate.tool.schema.spi.SchemaManagementToolCoordinator;
 import org.hibernate.tool.schema.spi.ScriptTargetOutput;
 import org.hibernate.tool.schema.spi.TargetDescriptor;
-import org.scannotation.AnnotationDB;
 
 
 /**
@@ -90,17 +105,26 @@ import org.scannotation.AnnotationDB;
 public abstract class AbstractSchemaMojo extends AbstractMojo
 {
   public final static String EXECUTE = "hibernate.schema.execute";
+  public final static String FINGERPRINT = "hibernate.schema.fingerprint";
+  public final static String FINGERPRINT_MODE = "hibernate.schema.fingerprint.mode";
   public final static String OUTPUTDIRECTORY = "project.build.outputDirectory";
   public final static String SCAN_CLASSES = "hibernate.schema.scan.classes";
   public final static String SCAN_DEPENDENCIES = "hibernate.schema.scan.dependencies";
+  public final static String SCAN_TRANSITIVE = "hibernate.schema.scan.transitive";
+  public final static String SCAN_INCLUDES = "hibernate.schema.scan.includes";
+  public final static String SCAN_EXCLUDES = "hibernate.schema.scan.excludes";
   public final static String SCAN_TESTCLASSES = "hibernate.schema.scan.test_classes";
   public final static String TEST_OUTPUTDIRECTORY = "project.build.testOutputDirectory";
   public final static String SKIPPED = "hibernate.schema.skipped";
   public final static String SCRIPT = "hibernate.schema.script";
+  public final static String TARGETS = "hibernate.schema.targets";
 
+  private final static String USE_JDBC_METADATA_DEFAULTS =
+      "hibernate.temp.use_jdbc_metadata_defaults";
   private final static Pattern SPLIT = Pattern.compile("[^,\\s]+");
 
   private final Set<String> packages = new HashSet<String>();
+  private final Set<String> annotatedPackages = new HashSet<String>();
 
 
   /**
@@ -186,6 +210,156 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
    */
   private boolean force;
 
+  /**
+   * Skip the execution of an unchanged script.
+   * <p>
+   * If set to <code>true</code> and <code>execute</code> is enabled, the
+   * script is generated first, without touching the database. Only if the
+   * generated script differs from the last script, that was successfully
+   * applied to the database, it is executed against the database.
+   * Hence, changes of the mappings, that do not affect the generated SQL,
+   * do not lead to a round trip to the database.
+   * <p>
+   * This is ignored by the goal <code>update</code>, because the script,
+   * that is generated by that goal, depends on the current state of the
+   * database. It is also ignored, if <code>force</code> is enabled.
+   * <p>
+   * <strong>Important:</strong>
+   * This configuration value can only be configured through the
+   * <code>pom.xml</code>, or by the definition of a system-property, because
+   * it is not known by Hibernate nor JPA and, hence, not picked up from
+   * their configuration!
+   *
+   * @parameter property="hibernate.schema.skip_identical" default-value="false"
+   * @since 2.1
+   */
+  private boolean skipIdentical;
+
+  /**
+   * Number of SQL-commands, that are sent to the database in one
+   * JDBC-batch.
+   * <p>
+   * By default (<code>0</code>), every command is executed in a round trip
+   * of its own by Hibernate. If set to a value greater than
+   * <code>1</code>, the commands are collected and executed with
+   * <code>addBatch()</code>/<code>executeBatch()</code> in batches of the
+   * given size. Many drivers send a batch in one request. Hence, the
+   * latency of the connection only adds up per batch and not per command.
+   * <p>
+   * Errors are still reported for every single command, that failed.
+   * Some databases do not support all kinds of DDL in a batch: in that
+   * case, the commands of the failed batch are executed one by one.
+   * <p>
+   * <strong>Important:</strong>
+   * This configuration value can only be configured through the
+   * <code>pom.xml</code>, or by the definition of a system-property, because
+   * it is not known by Hibernate nor JPA and, hence, not picked up from
+   * their configuration!
+   *
+   * @parameter property="hibernate.schema.batch_size" default-value="0"
+   * @since 2.1
+   */
+  private int batchSize;
+
+  /**
+   * Number of connections, that are used to execute the generated SQL.
+   * <p>
+   * By default (<code>1</code>), all commands are executed one after the
+   * other on a single connection. If set to a greater value, the commands
+   * are split into phases of commands, that do not depend on each other:
+   * namespaces and sequences, tables, indexes and foreign keys. The commands
+   * of a phase are executed concurrently on up to the given number of
+   * connections. The next phase is only started, when the current phase is
+   * complete. The generated script keeps the order of the commands.
+   * <p>
+   * Commands, that fail in parallel, are executed once more on their own,
+   * before an error is reported. If {@link #batchSize} is configured, each
+   * connection executes its commands in batches.
+   * <p>
+   * <strong>Important:</strong>
+   * This configuration value can only be configured through the
+   * <code>pom.xml</code>, or by the definition of a system-property, because
+   * it is not known by Hibernate nor JPA and, hence, not picked up from
+   * their configuration!
+   *
+   * @parameter property="hibernate.schema.parallel" default-value="1"
+   * @since 2.1
+   */
+  private int parallel;
+
+  /**
+   * Execute the generated SQL in a single transaction.
+   * <p>
+   * By default (<code>false</code>), every command is committed on its own.
+   * If set to <code>true</code>, all commands are executed in one
+   * transaction, that is committed at the end. If a command fails, the
+   * remaining commands are skipped and the transaction is rolled back, so
+   * that the database is not left in a half-migrated state.
+   * <p>
+   * This only works, if the database supports transactional DDL. Hence, the
+   * option is only honored for the dialects of PostgreSQL, SQL Server, DB2
+   * and Derby. For all other databases (for example H2, MySQL or Oracle,
+   * that commit DDL implicitly), a warning is logged and the commands are
+   * committed one by one. A single transaction cannot span several
+   * connections: if this option is active, {@link #parallel} is ignored.
+   * <p>
+   * <strong>Important:</strong>
+   * This configuration value can only be configured through the
+   * <code>pom.xml</code>, or by the definition of a system-property, because
+   * it is not known by Hibernate nor JPA and, hence, not picked up from
+   * their configuration!
+   *
+   * @parameter property="hibernate.schema.transactional" default-value="false"
+   * @since 2.1
+   */
+  private boolean transactional;
+
+  /**
+   * Additional databases, that the schema is applied to.
+   * <p>
+   * A list of JDBC-URLs, seperated by white space or commas. If set, the
+   * schema is applied to the database, that is configured by {@link #url},
+   * first. If that succeeds, the same metadata is applied to all listed
+   * databases concurrently (see {@link #targetThreads}). All targets are
+   * accessed through the configured {@link #driver} with the configured
+   * {@link #username} and {@link #password}. The script is only written for
+   * the database, that is configured by {@link #url}.
+   * <p>
+   * To apply the schema to several schemas of one database (i.e., in a
+   * schema-per-tenant setup), list one URL per schema and select the schema
+   * through the parameters of the driver (for example
+   * <code>currentSchema</code> for PostgreSQL). The default schema cannot
+   * be switched per target, because Hibernate renders it into the metadata.
+   * <p>
+   * A summary with the result and the duration of every target is logged.
+   * The execution fails, if the schema could not be applied to at least one
+   * target.
+   * <p>
+   * <strong>Important:</strong>
+   * This configuration value can only be configured through the
+   * <code>pom.xml</code>, or by the definition of a system-property, because
+   * it is not known by Hibernate nor JPA and, hence, not picked up from
+   * their configuration!
+   *
+   * @parameter property="hibernate.schema.targets"
+   * @since 2.1
+   */
+  private String targets;
+
+  /**
+   * Maximal number of targets, that are processed concurrently.
+   * <p>
+   * <strong>Important:</strong>
+   * This configuration value can only be configured through the
+   * <code>pom.xml</code>, or by the definition of a system-property, because
+   * it is not known by Hibernate nor JPA and, hence, not picked up from
+   * their configuration!
+   *
+   * @parameter property="hibernate.schema.targets.threads" default-value="4"
+   * @since 2.1
+   */
+  private int targetThreads;
+
   /**
    * Hibernate dialect.
    *
@@ -287,15 +461,39 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
    * If you do not want any dependencies to be scanned for annotated
    * classes, set this parameter to <code>none</code>.
    * <p>
-   * The plugin does not scan for annotated classes in transitive
+   * By default, the plugin does not scan for annotated classes in transitive
    * dependencies. If some of your annotated classes are hidden in a
-   * transitive dependency, you can simply add that dependency explicitly.
+   * transitive dependency, you can simply add that dependency explicitly,
+   * or switch on <code>scanTransitive</code>.
    *
    * @parameter property="hibernate.schema.scan.dependencies" default-value="compile"
    * @since 1.0.3
    */
   private String scanDependencies;
 
+  /**
+   * Scan transitive dependencies for annotated classes.
+   * <p>
+   * If set to <code>true</code>, the transitive dependencies in the scopes
+   * configured by <code>scanDependencies</code> are scanned too.
+   * To keep that cheap, each transitive dependency is pre-checked first:
+   * the archive is only scanned, if at least one of its classes references
+   * anything from the package <code>javax.persistence</code>. The pre-check
+   * stops at the first hit and reads the class-files only up to the end of
+   * their constant-pool. Combined with the cache (see <code>scanCache</code>),
+   * released dependencies are pre-checked only once.
+   * <p>
+   * <strong>Important:</strong>
+   * This configuration value can only be configured through the
+   * <code>pom.xml</code>, or by the definition of a system-property, because
+   * it is not known by Hibernate nor JPA and, hence, not picked up from
+   * their configuration!
+   *
+   * @parameter property="hibernate.schema.scan.transitive" default-value="false"
+   * @since 2.1
+   */
+  private boolean scanTransitive;
+
   /**
    * Whether to scan the test-branch of the project for annotated classes, or
    * not.
@@ -334,6 +532,149 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
    */
   private String testOutputDirectory;
 
+  /**
+   * Scan in parallel.
+   * <p>
+   * If this parameter is set to <code>true</code>, the scan-roots (the
+   * classes-directories, the scanned dependencies and the jar-files
+   * configured in the persistence-unit) are scanned in parallel.
+   * Large roots are split up further: each directory and each batch of
+   * entries of an archive is scanned as a separate task.
+   * The tasks are distributed over all available processors.
+   * <p>
+   * <strong>Important:</strong>
+   * This configuration value can only be configured through the
+   * <code>pom.xml</code>, or by the definition of a system-property, because
+   * it is not known by Hibernate nor JPA and, hence, not picked up from
+   * their configuration!
+   *
+   * @parameter property="hibernate.schema.scan.parallel" default-value="false"
+   * @since 2.1
+   */
+  private boolean scanParallel;
+
+  /**
+   * Packages to scan.
+   * <p>
+   * Only classes in packages, that match at least one of the given patterns,
+   * are scanned. Multiple patterns can be seperated by white space or commas.
+   * In a pattern, <code>*</code> matches any characters inside one segment
+   * of the package-name, while a segment <code>**</code> matches any number
+   * of segments. For example, <code>com.acme.domain.**</code> matches the
+   * package <code>com.acme.domain</code> and all its sub-packages.
+   * <p>
+   * Directories and archive-entries, that cannot match, are skipped without
+   * reading them. The patterns are applied to all scanned roots, including
+   * the jar-files configured in a persistence-unit.
+   * Classes, that are listed explicitly in a persistence-unit, are not
+   * filtered.
+   * <p>
+   * If not set, all packages are scanned.
+   * <p>
+   * <strong>Important:</strong>
+   * This configuration value can only be configured through the
+   * <code>pom.xml</code>, or by the definition of a system-property, because
+   * it is not known by Hibernate nor JPA and, hence, not picked up from
+   * their configuration!
+   *
+   * @parameter property="hibernate.schema.scan.includes"
+   * @since 2.1
+   */
+  private String scanIncludes;
+
+  /**
+   * Packages to exclude from the scan.
+   * <p>
+   * Classes in packages, that match at least one of the given patterns, are
+   * not scanned, even if they match one of the patterns configured in
+   * <code>scanIncludes</code>. The syntax of the patterns is the same as for
+   * <code>scanIncludes</code>.
+   * <p>
+   * <strong>Important:</strong>
+   * This configuration value can only be configured through the
+   * <code>pom.xml</code>, or by the definition of a system-property, because
+   * it is not known by Hibernate nor JPA and, hence, not picked up from
+   * their configuration!
+   *
+   * @parameter property="hibernate.schema.scan.excludes"
+   * @since 2.1
+   */
+  private String scanExcludes;
+
+  /**
+   * Directory for the cache of scan-results.
+   * <p>
+   * The results of the scans of released (not SNAPSHOT) dependencies are
+   * cached in this directory. A cached result is reused, as long as the
+   * size, the modification-time and the checksum of the artifact are
+   * unchanged. SNAPSHOT-dependencies and the classes of the project itself
+   * are always scanned.
+   * <p>
+   * If you do not want the results to be cached, set this parameter to
+   * <code>none</code>.
+   * <p>
+   * <strong>Important:</strong>
+   * This configuration value can only be configured through the
+   * <code>pom.xml</code>, or by the definition of a system-property, because
+   * it is not known by Hibernate nor JPA and, hence, not picked up from
+   * their configuration!
+   *
+   * @parameter property="hibernate.schema.scan.cache" default-value="${settings.localRepository}/.cache/hibernate-maven-plugin"
+   * @since 2.1
+   */
+  private String scanCache;
+
+  /**
+   * Algorithm for the fingerprints of the tracked classes and mappings.
+   * <p>
+   * The plugin remembers a fingerprint of every annotated class, mapping and
+   * annotated package, to detect, if the schema has to be generated again.
+   * By default, <code>md5</code> is used, the algorithm of former versions
+   * of the plugin. Set this parameter to <code>xxhash64</code>, to use a
+   * fast non-cryptographic hash instead. If the algorithm is changed, the
+   * stored fingerprints do not match any more: hence, the schema is
+   * generated once again.
+   * <p>
+   * Resources, that have to be hashed, are hashed in parallel on all
+   * available processors.
+   * <p>
+   * <strong>Important:</strong>
+   * This configuration value can only be configured through the
+   * <code>pom.xml</code>, or by the definition of a system-property, because
+   * it is not known by Hibernate nor JPA and, hence, not picked up from
+   * their configuration!
+   *
+   * @parameter property="hibernate.schema.fingerprint" default-value="md5"
+   * @since 2.1
+   */
+  private String fingerprint;
+
+  /**
+   * Parts of the annotated classes, that are fingerprinted.
+   * <p>
+   * By default (<code>full</code>), the complete class-files are
+   * fingerprinted. Hence, every recompilation of an annotated class
+   * triggers a regeneration of the schema, even if only a line-number or
+   * the body of a method has changed.
+   * <p>
+   * If set to <code>mapping</code>, only the parts of the class-files, that
+   * may affect the mapping, are fingerprinted: the names, super-classes and
+   * interfaces of the classes, the signatures of all fields and methods and
+   * all runtime-visible annotations together with their values.
+   * Code, debug-information and members, that were generated by the
+   * compiler, are ignored.
+   * <p>
+   * <strong>Important:</strong>
+   * This configuration value can only be configured through the
+   * <code>pom.xml</code>, or by the definition of a system-property, because
+   * it is not known by Hibernate nor JPA and, hence, not picked up from
+   * their configuration!
+   *
+   * @parameter property="hibernate.schema.fingerprint.mode" default-value="full"
+   * @since 2.1
+   */
+  private String fingerprintMode;
+
 
   /** Conection parameters *************************************************/
 
@@ -369,6 +710,46 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
    */
   private String password;
 
+  /**
+   * When to open the JDBC-connection.
+   * <p>
+   * <ul>
+   *   <li>
+   *     <code>eager</code>: the connection is opened, after it was decided,
+   *     that the schema has to be generated, and before the metadata is
+   *     built (default).
+   *   </li>
+   *   <li>
+   *     <code>lazy</code>: the connection is opened, when Hibernate requests
+   *     it the first time. If the dialect is configured and the generated
+   *     SQL is not executed, no connection is opened at all. To achieve that,
+   *     the lookup of the JDBC-metadata during the bootstrap of Hibernate is
+   *     switched off (<code>hibernate.temp.use_jdbc_metadata_defaults=false</code>),
+   *     unless that property is configured explicitly. Hence, the defaults,
+   *     that Hibernate would otherwise derive from the metadata of the
+   *     database (for example, the keywords of the database), are not
+   *     applied.
+   *   </li>
+   *   <li>
+   *     <code>prefetch</code>: the connection is opened on a background
+   *     thread, as soon as the configuration is known. Hence, connecting to
+   *     the database overlaps with the scan for annotated classes and the
+   *     building of the metadata. Note, that the connection is also opened,
+   *     if the execution is skipped later on, because nothing has changed.
+   *   </li>
+   * </ul>
+   * <p>
+   * <strong>Important:</strong>
+   * This configuration value can only be configured through the
+   * <code>pom.xml</code>, or by the definition of a system-property, because
+   * it is not known by Hibernate nor JPA and, hence, not picked up from
+   * their configuration!
+   *
+   * @parameter property="hibernate.schema.connection" default-value="eager"
+   * @since 2.1
+   */
+  private String connectionMode;
+
 
   /** Parameters to locate configuration sources ****************************/
 
@@ -450,19 +831,60 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
       return;
     }
 
+    if (!"full".equalsIgnoreCase(fingerprintMode)
+        && !"mapping".equalsIgnoreCase(fingerprintMode))
+      throw new MojoFailureException("Unknown fingerprint-mode: " + fingerprintMode);
+
+    if (!SimpleConnectionProvider.EAGER.equalsIgnoreCase(connectionMode)
+        && !SimpleConnectionProvider.LAZY.equalsIgnoreCase(connectionMode)
+        && !SimpleConnectionProvider.PREFETCH.equalsIgnoreCase(connectionMode))
+      throw new MojoFailureException("Unknown connection-mode: " + connectionMode);
+
+    /** Check, that the outputfile is writable */
+    final File output = getOutputFile(filename);
+
+    /**
+     * Fast path: skip the execution before anything is bootstrapped, if
+     * nothing has changed since the last successful execution
+     */
+    Snapshot snapshot = snapshot(filename);
+    if (snapshot != null && !force && snapshot.matches(output))
+    {
+      getLog().info("Configuration and class-path unchanged since the last execution.");
+      getLog().info("Skipping schema generation!");
+      project.getProperties().setProperty(SKIPPED, "true");
+      return;
+    }
+
     ModificationTracker tracker;
     try
     {
-      tracker = new ModificationTracker(buildDirectory, filename, getLog());
+      tracker =
+          new ModificationTracker(
+              buildDirectory,
+              filename,
+              fingerprint,
+              "mapping".equalsIgnoreCase(fingerprintMode),
+              getLog()
+              );
     }
     catch (NoSuchAlgorithmException e)
     {
-      throw new MojoFailureException("Digest-Algorithm MD5 is missing!", e);
+      throw new MojoFailureException(e.getMessage(), e);
     }
 
+    /** Look up the state, that is shared with the other goals */
+    SharedState shared = SharedState.get(project, getSharedConfiguration());
+    tracker.share(shared.getFingerprints());
+
     final SimpleConnectionProvider connectionProvider =
         new SimpleConnectionProvider(getLog());
 
+    MutableClassLoader classLoader = null;
+    BootstrapServiceRegistry bootstrapServiceRegitry = null;
+    StandardServiceRegistry serviceRegistry = null;
+    long[] memory = memory();
+    boolean succeeded = false;
     try
     {
       /** Start extended logging */
@@ -472,28 +894,42 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
       tracker.load();
 
       /** Create the ClassLoader */
-      MutableClassLoader classLoader = createClassLoader();
+      classLoader = createClassLoader();
 
       /** Create a BootstrapServiceRegistry with the created ClassLoader */
-      BootstrapServiceRegistry bootstrapServiceRegitry =
+      bootstrapServiceRegitry =
           new BootstrapServiceRegistryBuilder()
               .applyClassLoader(classLoader)
               .build();
       ClassLoaderService classLoaderService =
           bootstrapServiceRegitry.getService(ClassLoaderService.class);
 
-      Properties properties = new Properties();
-      ConfigLoader configLoader = new ConfigLoader(bootstrapServiceRegitry);
-
-      /** Loading and merging configuration */
-      properties.putAll(loadProperties(configLoader));
-      LoadedConfig config = loadConfig(configLoader);
-      if (config != null)
-        properties.putAll(config.getConfigurationValues());
-      ParsedPersistenceXmlDescriptor unit =
-          loadPersistenceUnit(classLoaderService, properties);
-      if (unit != null)
-        properties.putAll(unit.getProperties());
+      Properties properties;
+      LoadedConfig config;
+      ParsedPersistenceXmlDescriptor unit;
+      if (shared.isConfigured())
+      {
+        /** Reuse the configuration, that was loaded by a previous goal */
+        getLog().debug("Reusing the configuration loaded by a previous goal");
+        properties = shared.getProperties();
+        config = shared.getConfig();
+        unit = shared.getUnit();
+      }
+      else
+      {
+        properties = new Properties();
+        ConfigLoader configLoader = new ConfigLoader(bootstrapServiceRegitry);
+
+        /** Loading and merging configuration */
+        properties.putAll(loadProperties(configLoader));
+        config = loadConfig(configLoader);
+        if (config != null)
+          properties.putAll(config.getConfigurationValues());
+        unit = loadPersistenceUnit(classLoaderService, properties);
+        if (unit != null)
+          properties.putAll(unit.getProperties());
+        shared.configured(properties, config, unit);
+      }
 
       /** Overwriting/Completing configuration */
       configure(properties, tracker);
@@ -504,22 +940,38 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
       else
         getLog().debug("Configuration unchanged.");
 
-      /** Check, that the outputfile is writable */
-      final File output = getOutputFile(filename);
       /** Check, if the outputfile is missing or was changed */
       checkOutputFile(output, tracker);
 
       /** Configure Hibernate */
-      final StandardServiceRegistry serviceRegistry =
+      StandardServiceRegistryBuilder registryBuilder =
           new StandardServiceRegistryBuilder(bootstrapServiceRegitry)
               .applySettings(properties)
-              .addService(ConnectionProvider.class, connectionProvider)
-              .build();
+              .addService(ConnectionProvider.class, connectionProvider);
+      /**
+       * Hibernate looks up the JDBC-metadata during the bootstrap, even if
+       * the dialect is configured: in lazy mode, this lookup is switched off,
+       * unless it was configured explicitly, because otherwise the connection
+       * would always be opened.
+       */
+      if (SimpleConnectionProvider.LAZY.equalsIgnoreCase(connectionMode)
+          && properties.containsKey(DIALECT)
+          && !registryBuilder.getSettings().containsKey(USE_JDBC_METADATA_DEFAULTS))
+      {
+        getLog().debug("Lazy connection: skipping the lookup of the JDBC-metadata");
+        registryBuilder.applySetting(USE_JDBC_METADATA_DEFAULTS, "false");
+      }
+      serviceRegistry = registryBuilder.build();
       final MetadataSources sources = new MetadataSources(serviceRegistry);
 
       /** Add the remaining class-path-elements */
       completeClassPath(classLoader);
 
+      /** Start to connect in the background, if requested */
+      if (SimpleConnectionProvider.PREFETCH.equalsIgnoreCase(connectionMode)
+          && connectionProvider.configure(classLoaderService, properties))
+        connectionProvider.prefetch();
+
       /** Apply mappings from hibernate-configuration, if present */
       if (config != null)
       {
@@ -527,7 +979,18 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
           mapping.apply(sources);
       }
 
+      PackageFilter filter = new PackageFilter(scanIncludes, scanExcludes);
+      ScanCache cache = null;
+      if (scanCache != null && !scanCache.equalsIgnoreCase("none"))
+        cache = new ScanCache(new File(scanCache), filter, getLog());
+      ScanManifest manifest =
+          new ScanManifest(buildDirectory, filename, getLog());
+      manifest.load();
+
+      Set<URL> prechecked = new HashSet<URL>();
+      Map<String, byte[]> contents = new ConcurrentHashMap<String, byte[]>();
       Set<String> classes;
+      Set<String> unscanned = new HashSet<String>();
       if (unit == null)
       {
         /** No persistent unit: default behaviour */
@@ -538,8 +1001,9 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
           addRoot(urls, outputDirectory);
         if (scanTestClasses)
           addRoot(urls, testOutputDirectory);
-        addDependencies(urls);
-        classes = scanUrls(urls);
+        addDependencies(urls, prechecked, cache);
+        classes =
+            scanUrls(urls, prechecked, contents, filter, cache, manifest, shared);
       }
       else
       {
@@ -559,22 +1023,24 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
         }
         if (scanTestClasses)
           addRoot(urls, testOutputDirectory);
-        classes = scanUrls(urls);
+        classes =
+            scanUrls(urls, prechecked, contents, filter, cache, manifest, shared);
         for (String className : unit.getManagedClassNames())
-          classes.add(className);
+          if (classes.add(className))
+            unscanned.add(className);
         /**
          * Add mappings from the default mapping-file
          * <code>META-INF/orm.xml</code>, if present
          */
         boolean error = false;
-        InputStream is;
-        is = classLoader.getResourceAsStream("META-INF/orm.xml");
-        if (is != null)
+        URL url;
+        url = classLoader.getResource("META-INF/orm.xml");
+        if (url != null)
         {
           getLog().info("Adding default JPA-XML-mapping from META-INF/orm.xml");
           try
           {
-            tracker.track("META-INF/orm.xml", is);
+            tracker.track("META-INF/orm.xml", url);
             sources.addResource("META-INF/orm.xml");
           }
           catch (IOException e)
@@ -594,12 +1060,12 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
         for (String mapping : unit.getMappingFileNames())
         {
           getLog().info("Adding explicitly configured mapping from " + mapping);
-          is = classLoader.getResourceAsStream(mapping);
-          if (is != null)
+          url = classLoader.getResource(mapping);
+          if (url != null)
           {
             try
             {
-              tracker.track(mapping, is);
+              tracker.track(mapping, url);
               sources.addResource(mapping);
             }
             catch (IOException e)
@@ -622,9 +1088,40 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
               );
       }
 
-      /** Add the configured/collected annotated classes */
+      /** Calculate the fingerprints of the collected classes in parallel */
+      prefetch(classes, classLoader, contents, tracker);
+      contents.clear();
+
+      /**
+       * Track the configured/collected annotated classes.
+       * The classes are not loaded before it is clear, that the schema has
+       * to be generated.
+       */
+      List<String> annotated = new LinkedList<String>();
       for (String className : classes)
-        addAnnotated(className, sources, classLoaderService, tracker);
+        addAnnotated(
+            className,
+            unscanned.contains(className),
+            annotated,
+            sources,
+            classLoaderService,
+            tracker
+            );
+
+      /**
+       * Add the annotated packages found by the scan, that do not contain
+       * any annotated class (e.g. a package-info, that only declares
+       * generators, type-definitions or named queries)
+       */
+      for (String packageName : new TreeSet<String>(annotatedPackages))
+        addAnnotated(
+            packageName,
+            false,
+            annotated,
+            sources,
+            classLoaderService,
+            tracker
+            );
 
       /** Add explicitly configured classes */
       addMappings(sources, tracker);
@@ -639,10 +1136,14 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
         {
           getLog().info("Skipping schema generation!");
           project.getProperties().setProperty(SKIPPED, "true");
+          succeeded = true;
           return;
         }
       }
 
+      /** Load and add the annotated classes */
+      addAnnotatedClasses(annotated, sources, classLoaderService);
+
 
       /** Truncate output file */
       try
@@ -659,7 +1160,11 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
       }
 
       /** Create a connection, if sufficient configuration infromation is available */
-      connectionProvider.open(classLoaderService, properties);
+      final boolean configured =
+          connectionProvider.configure(classLoaderService, properties);
+      if (configured
+          && SimpleConnectionProvider.EAGER.equalsIgnoreCase(connectionMode))
+        connectionProvider.open();
 
       MetadataBuilder metadataBuilder = sources.getMetadataBuilder();
 
@@ -698,29 +1203,12 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
       ExecutionOptions options =
           SchemaManagementToolCoordinator
               .buildExecutionOptions(settings, handler);
-      final EnumSet<TargetType> targetTypes = EnumSet.of(TargetType.SCRIPT);
-      if (execute)
-        targetTypes.add(TargetType.DATABASE);
-      TargetDescriptor target = new TargetDescriptor()
-      {
-        @Override
-        public EnumSet<TargetType> getTargetTypes()
-        {
-          return targetTypes;
-        }
-
-        @Override
-        public ScriptTargetOutput getScriptTargetOutput()
-        {
-          String charset =
-              (String)
-              serviceRegistry
-                  .getService(ConfigurationService.class)
-                  .getSettings()
-                  .get(AvailableSettings.HBM2DDL_CHARSET_NAME);
-          return new ScriptTargetOutputToFile(output, charset);
-        }
-      };
+      String charset =
+          (String)
+          serviceRegistry
+              .getService(ConfigurationService.class)
+              .getSettings()
+              .get(AvailableSettings.HBM2DDL_CHARSET_NAME);
 
       /**
        * Change class-loader of current thread.
@@ -729,30 +1217,67 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
        */
       Thread thread = Thread.currentThread();
       ClassLoader contextClassLoader = thread.getContextClassLoader();
+      boolean tracked = false;
       try
       {
         thread.setContextClassLoader(classLoader);
-        build((MetadataImplementor)metadataBuilder.build(), options, target);
-        if (handler.getExceptions().size() > 0)
+        MetadataImplementor metadata =
+            (MetadataImplementor)metadataBuilder.build();
+        if (execute && skipIdentical && isScriptReproducible())
         {
-          StringBuilder builder = new StringBuilder();
-          builder.append("Hibernate failed:");
-          for (Exception e : handler.getExceptions())
+          /**
+           * Render the script without touching the database and compare it
+           * with the last script, that was applied to the database
+           */
+          HashingScriptTargetOutput script =
+              new HashingScriptTargetOutput(output, charset, tracker.hasher());
+          build(metadata, options, target(EnumSet.of(TargetType.SCRIPT), script));
+          check(handler);
+          String applied = track(output, script, tracker);
+          tracked = true;
+          if (!force && applied.equals(tracker.getApplied()))
           {
-            builder.append("\n * ");
-            builder.append(e.getMessage());
+            getLog().info("Generated script is identical to the last applied script.");
+            getLog().info("Skipping the execution against the database!");
+          }
+          else
+          {
+            /** The script was already written: only execute it */
+            build(
+                metadata,
+                options,
+                target(null, true, options, metadata, connectionProvider)
+                );
+            check(handler);
+            apply(metadata, settings, configured, connectionProvider, classLoader);
+            tracker.setApplied(applied);
           }
-          String error = builder.toString();
-          getLog().error(error);
-          throw new MojoFailureException(error);
+        }
+        else
+        {
+          HashingScriptTargetOutput script =
+              new HashingScriptTargetOutput(output, charset, tracker.hasher());
+          build(
+              metadata,
+              options,
+              target(script, execute, options, metadata, connectionProvider)
+              );
+          check(handler);
+          String applied = track(output, script, tracker);
+          tracked = true;
+          if (execute)
+            apply(metadata, settings, configured, connectionProvider, classLoader);
+          tracker.setApplied(execute ? applied : null);
         }
       }
       finally
       {
         thread.setContextClassLoader(contextClassLoader);
-        /** Track, the content of the generated script */
-        checkOutputFile(output, tracker);
+        /** Track, the content of the generated script, if not done yet */
+        if (!tracked)
+          checkOutputFile(output, tracker);
       }
+      succeeded = true;
     }
     catch (MojoExecutionException e)
     {
@@ -774,15 +1299,87 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
       /** Remember mappings and configuration */
       tracker.save();
 
+      /** Remember the snapshot for the fast path of the next execution */
+      if (snapshot != null)
+      {
+        if (succeeded)
+          snapshot.save(output);
+        else
+          snapshot.delete();
+      }
+
       /** Close the connection - if one was opened */
       connectionProvider.close();
 
+      /** Release the services and the classes of the project */
+      destroy(serviceRegistry);
+      destroy(bootstrapServiceRegitry);
+      if (classLoader != null)
+      {
+        try
+        {
+          classLoader.close();
+        }
+        catch (IOException e)
+        {
+          getLog().warn("Error while closing the ClassLoader: " + e);
+        }
+      }
+
+      report(memory, memory());
+
       /** Stop Log-Capturing */
       MavenLogAppender.endPluginLog(this);
     }
   }
 
 
+  /**
+   * Destroys the given service-registry, if it was created.
+   */
+  private void destroy(ServiceRegistry registry)
+  {
+    if (!(registry instanceof ServiceRegistryImplementor))
+      return;
+    try
+    {
+      ((ServiceRegistryImplementor)registry).destroy();
+    }
+    catch (RuntimeException e)
+    {
+      getLog().warn("Error while destroying the service-registry: " + e);
+    }
+  }
+
+  /**
+   * @return the used heap and the used metaspace in bytes
+   */
+  private static long[] memory()
+  {
+    long metaspace = -1;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+      if ("Metaspace".equals(pool.getName()))
+        metaspace = pool.getUsage().getUsed();
+    MemoryMXBean bean = ManagementFactory.getMemoryMXBean();
+    if (metaspace < 0)
+      metaspace = bean.getNonHeapMemoryUsage().getUsed();
+    return new long[] { bean.getHeapMemoryUsage().getUsed(), metaspace };
+  }
+
+  /**
+   * Reports the memory-usage before and after the execution, so that a
+   * growing footprint in long reactor-builds can be spotted.
+   */
+  private void report(long[] before, long[] after)
+  {
+    getLog().info(
+        "Memory: heap " + (before[0] >> 20) + " MB -> " + (after[0] >> 20) +
+        " MB, metaspace " + (before[1] >> 20) + " MB -> " +
+        (after[1] >> 20) + " MB"
+        );
+  }
+
+
   abstract void build(
       MetadataImplementor metadata,
       ExecutionOptions options,
@@ -792,6 +1389,394 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
       MojoFailureException,
       MojoExecutionException;
 
+  /**
+   * Decides, if the generated script only depends on the mappings and the
+   * configuration.
+   * <p>
+   * Only in that case, an unchanged script can be skipped safely (see
+   * <code>skipIdentical</code>).
+   *
+   * @return <code>true</code>, if the generated script does not depend on
+   *         the current state of the database
+   */
+  boolean isScriptReproducible()
+  {
+    return true;
+  }
+
+
+  /**
+   * @param targetTypes the targets to use
+   * @param script the output for the script, or <code>null</code>, if the
+   *               script is not written
+   */
+  private TargetDescriptor target(
+      final EnumSet<TargetType> targetTypes,
+      final ScriptTargetOutput script
+      )
+  {
+    return new TargetDescriptor()
+    {
+      @Override
+      public EnumSet<TargetType> getTargetTypes()
+      {
+        return targetTypes;
+      }
+
+      @Override
+      public ScriptTargetOutput getScriptTargetOutput()
+      {
+        return script;
+      }
+    };
+  }
+
+  /**
+   * @param script the output for the script, or <code>null</code>, if the
+   *               script is not written
+   * @param database if <code>true</code>, the generated SQL is executed
+   *                 against the database
+   */
+  private TargetDescriptor target(
+      ScriptTargetOutput script,
+      boolean database,
+      ExecutionOptions options,
+      MetadataImplementor metadata,
+      SimpleConnectionProvider connectionProvider
+      )
+  {
+    EnumSet<TargetType> types = EnumSet.noneOf(TargetType.class);
+    if (script != null)
+      types.add(TargetType.SCRIPT);
+    if (database)
+    {
+      Dialect dialect = metadata.getDatabase().getDialect();
+      SqlStatementLogger logger =
+          metadata
+              .getMetadataBuildingOptions()
+              .getServiceRegistry()
+              .getService(JdbcServices.class)
+              .getSqlStatementLogger();
+      if (transactional && !supportsTransactionalDdl(dialect))
+        getLog().warn(
+            "Dialect " + dialect.getClass().getName() +
+            " does not support transactional DDL: the commands are " +
+            "committed one by one"
+            );
+      if (transactional && supportsTransactionalDdl(dialect))
+      {
+        /** Execute all commands in one transaction through the script-target */
+        if (parallel > 1)
+          getLog().warn("The DDL is executed in a single transaction: ignoring parallel=" + parallel);
+        script =
+            new BatchingScriptTargetOutput(
+                script,
+                connectionProvider,
+                Math.max(batchSize, 1),
+                (String)options
+                    .getConfigurationValues()
+                    .get(AvailableSettings.HBM2DDL_DELIMITER),
+                options.getExceptionHandler(),
+                logger,
+                getLog(),
+                true
+                );
+        types.add(TargetType.SCRIPT);
+      }
+      else if (parallel > 1)
+      {
+        /** Execute the commands in phases on several connections */
+        script =
+            new ParallelScriptTargetOutput(
+                script,
+                connectionProvider,
+                parallel,
+                batchSize,
+                (String)options
+                    .getConfigurationValues()
+                    .get(AvailableSettings.HBM2DDL_DELIMITER),
+                options.getExceptionHandler(),
+                logger,
+                getLog()
+                );
+        types.add(TargetType.SCRIPT);
+      }
+      else if (batchSize > 1)
+      {
+        /** Execute the commands in batches through the script-target */
+        script =
+            new BatchingScriptTargetOutput(
+                script,
+                connectionProvider,
+                batchSize,
+                (String)options
+                    .getConfigurationValues()
+                    .get(AvailableSettings.HBM2DDL_DELIMITER),
+                options.getExceptionHandler(),
+                logger,
+                getLog()
+                );
+        types.add(TargetType.SCRIPT);
+      }
+      else
+      {
+        types.add(TargetType.DATABASE);
+      }
+    }
+    return target(types, script);
+  }
+
+  /**
+   * Applies the metadata to the configured additional targets on a bounded
+   * thread-pool and logs a summary of the results.
+   */
+  private void apply(
+      final MetadataImplementor metadata,
+      final Map settings,
+      boolean configured,
+      final SimpleConnectionProvider connectionProvider,
+      final ClassLoader classLoader
+      )
+      throws
+        MojoFailureException
+  {
+    if (targets == null)
+      return;
+
+    final List<String> urls = new ArrayList<String>();
+    Matcher matcher = SPLIT.matcher(targets);
+    while (matcher.find())
+      urls.add(matcher.group());
+    if (urls.isEmpty())
+      return;
+
+    if (!configured)
+    {
+      String error =
+          "Cannot apply the schema to " + urls.size() + " additional " +
+          "target(s), because the connection information is incomplete";
+      getLog().error(error);
+      throw new MojoFailureException(error);
+    }
+
+    getLog().info(
+        "Applying the schema to " + urls.size() + " additional target(s) " +
+        "on up to " + targetThreads + " thread(s)..."
+        );
+    long start = System.currentTimeMillis();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.max(1, Math.min(targetThreads, urls.size())),
+            new ThreadFactory()
+            {
+              private final AtomicInteger count = new AtomicInteger();
+
+              @Override
+              public Thread newThread(Runnable runnable)
+              {
+                Thread thread =
+                    new Thread(
+                        runnable,
+                        "hibernate-maven-plugin-target-" + count.incrementAndGet()
+                        );
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+    List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+    final long[] durations = new long[urls.size()];
+    try
+    {
+      for (int i = 0; i < urls.size(); i++)
+      {
+        final int index = i;
+        futures.add(executor.submit(new Callable<List<String>>()
+        {
+          @Override
+          public List<String> call()
+          {
+            long started = System.currentTimeMillis();
+            List<String> errors = new ArrayList<String>();
+            Thread thread = Thread.currentThread();
+            ClassLoader contextClassLoader = thread.getContextClassLoader();
+            SimpleConnectionProvider provider =
+                connectionProvider.forUrl(urls.get(index));
+            ExceptionHandlerCollectingImpl handler =
+                new ExceptionHandlerCollectingImpl();
+            try
+            {
+              thread.setContextClassLoader(classLoader);
+              connectionProvider.route(provider);
+              ExecutionOptions options =
+                  SchemaManagementToolCoordinator
+                      .buildExecutionOptions(settings, handler);
+              build(
+                  metadata,
+                  options,
+                  target(null, true, options, metadata, provider)
+                  );
+            }
+            catch (Exception e)
+            {
+              errors.add(message(e));
+            }
+            finally
+            {
+              connectionProvider.route(null);
+              provider.close();
+              thread.setContextClassLoader(contextClassLoader);
+            }
+            for (Exception e : handler.getExceptions())
+              errors.add(message(e));
+            durations[index] = System.currentTimeMillis() - started;
+            return errors;
+          }
+        }));
+      }
+
+      StringBuilder builder = new StringBuilder();
+      int failed = 0;
+      for (int i = 0; i < urls.size(); i++)
+      {
+        List<String> errors;
+        try
+        {
+          errors = futures.get(i).get();
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          throw new MojoFailureException("Interrupted while applying the schema to the targets");
+        }
+        catch (ExecutionException e)
+        {
+          errors = new ArrayList<String>();
+          errors.add(e.getCause().toString());
+        }
+        if (errors.isEmpty())
+        {
+          getLog().info("  OK     " + urls.get(i) + " (" + durations[i] + " ms)");
+        }
+        else
+        {
+          failed++;
+          getLog().error(
+              "  FAILED " + urls.get(i) + " (" + durations[i] + " ms, " +
+              errors.size() + " error(s))"
+              );
+          for (String error : errors)
+          {
+            builder.append("\n * ");
+            builder.append(urls.get(i));
+            builder.append(": ");
+            builder.append(error);
+          }
+        }
+      }
+      getLog().info(
+          "Applied the schema to " + (urls.size() - failed) + " of " +
+          urls.size() + " additional target(s) in " +
+          (System.currentTimeMillis() - start) + " ms"
+          );
+
+      if (failed > 0)
+      {
+        String error =
+            "Hibernate failed on " + failed + " of " + urls.size() +
+            " additional target(s):" + builder;
+        getLog().error(error);
+        throw new MojoFailureException(error);
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Exceptions like a {@link NullPointerException} carry no message: in
+   * that case, the exception itself is reported.
+   */
+  private static String message(Exception e)
+  {
+    return e.getMessage() != null ? e.getMessage() : e.toString();
+  }
+
+  /**
+   * Hibernate does not know, if a database can roll back DDL: only the
+   * dialects of databases, that are known to support it, are accepted
+   * (the dialects of Derby extend the dialect of DB2).
+   */
+  private static boolean supportsTransactionalDdl(Dialect dialect)
+  {
+    return
+        dialect instanceof PostgreSQL81Dialect ||
+        dialect instanceof SQLServerDialect ||
+        dialect instanceof DB2Dialect;
+  }
+
+  /**
+   * Tracks the generated script with the fingerprint, that was calculated
+   * while the script was written.
+   *
+   * @return the fingerprint of the script
+   */
+  private String track(
+      File output,
+      HashingScriptTargetOutput script,
+      ModificationTracker tracker
+      )
+      throws
+        MojoExecutionException
+  {
+    String hash = script.getFingerprint();
+    if (hash == null)
+    {
+      /** Nothing was written through the output: read the file */
+      hash = fingerprint(output, tracker);
+    }
+    tracker.track(SCRIPT, output, hash);
+    return hash;
+  }
+
+  private String fingerprint(File output, ModificationTracker tracker)
+      throws
+        MojoExecutionException
+  {
+    try
+    {
+      return tracker.fingerprint(output);
+    }
+    catch (IOException e)
+    {
+      String error =
+          "Error while calculating the fingerprint of " +
+          output.getAbsolutePath() + ": " + e.getMessage();
+      getLog().error(error);
+      throw new MojoExecutionException(error, e);
+    }
+  }
+
+  private void check(ExceptionHandlerCollectingImpl handler)
+      throws
+        MojoFailureException
+  {
+    if (handler.getExceptions().size() > 0)
+    {
+      StringBuilder builder = new StringBuilder();
+      builder.append("Hibernate failed:");
+      for (Exception e : handler.getExceptions())
+      {
+        builder.append("\n * ");
+        builder.append(e.getMessage());
+      }
+      String error = builder.toString();
+      getLog().error(error);
+      throw new MojoFailureException(error);
+    }
+  }
+
 
   private MutableClassLoader createClassLoader() throws MojoExecutionException
   {
@@ -945,6 +1930,22 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
     }
     configure(properties, execute, EXECUTE);
 
+    /**
+     * Special treatment for the configuration-value "targets": if targets
+     * were added, the last applied script is not known to all targets!
+     */
+    if (tracker.check(TARGETS, targets == null ? "" : targets.trim())
+        && targets != null
+        && !targets.trim().isEmpty())
+    {
+      getLog().info(
+          "hibernate.schema.targets was changed: " +
+          "forcing execution of SQL against all targets"
+          );
+      tracker.touch();
+      tracker.setApplied(null);
+    }
+
     /**
      * Configure the generation of the SQL.
      * Overwrite values from properties-file if the configuration parameter is
@@ -958,6 +1959,11 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
     configure(properties, physicalNamingStrategy, PHYSICAL_NAMING_STRATEGY);
     configure(properties, outputDirectory, OUTPUTDIRECTORY);
     configure(properties, scanDependencies, SCAN_DEPENDENCIES);
+    configure(properties, fingerprint, FINGERPRINT);
+    configure(properties, fingerprintMode, FINGERPRINT_MODE);
+    configure(properties, scanTransitive, SCAN_TRANSITIVE);
+    configure(properties, scanIncludes, SCAN_INCLUDES);
+    configure(properties, scanExcludes, SCAN_EXCLUDES);
     configure(properties, scanTestClasses, SCAN_TESTCLASSES);
     configure(properties, testOutputDirectory, TEST_OUTPUTDIRECTORY);
 
@@ -1117,7 +2123,7 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
     try
     {
       if (output.exists())
-        tracker.track(SCRIPT, new FileInputStream(output));
+        tracker.track(SCRIPT, output.toURI().toURL());
       else
         tracker.track(SCRIPT, ZonedDateTime.now().toString());
     }
@@ -1157,7 +2163,7 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
             if (file.isDirectory())
               // TODO: add support to read all mappings under a directory
               throw new MojoFailureException(file.getAbsolutePath() + " is a directory");
-            if (tracker.track(filename, new FileInputStream(file)))
+            if (tracker.track(filename, file.toURI().toURL()))
               getLog().debug("Found new or modified mapping-file: " + filename);
             else
               getLog().debug("Mapping-file unchanged: " + filename);
@@ -1193,7 +2199,13 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
     }
   }
 
-  private void addDependencies(Set<URL> urls) throws MojoFailureException
+  private void addDependencies(
+      Set<URL> urls,
+      Set<URL> prechecked,
+      ScanCache cache
+      )
+      throws
+        MojoFailureException
   {
     try
     {
@@ -1203,7 +2215,10 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
         while (matcher.find())
         {
           getLog().info("Adding dependencies from scope " + matcher.group() + " to the list of roots to scan");
-          for (Artifact artifact : project.getDependencyArtifacts())
+          Set<Artifact> direct = project.getDependencyArtifacts();
+          Set<Artifact> artifacts =
+              scanTransitive ? project.getArtifacts() : direct;
+          for (Artifact artifact : artifacts)
           {
             if (!artifact.getScope().equalsIgnoreCase(matcher.group()))
               continue;
@@ -1213,7 +2228,15 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
               continue;
             }
             getLog().info("Adding dependencies from scope " + artifact.getId() + " to the list of roots to scan");
-            urls.add(artifact.getFile().toURI().toURL());
+            URL url = artifact.getFile().toURI().toURL();
+            urls.add(url);
+            if (!direct.contains(artifact))
+            {
+              getLog().debug(artifact.getId() + " is a transitive dependency and will be pre-checked");
+              prechecked.add(url);
+            }
+            if (cache != null && cache.register(url, artifact))
+              getLog().debug("Scan-results for " + artifact.getId() + " will be cached");
           }
         }
       }
@@ -1225,24 +2248,57 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
     }
   }
 
-  private Set<String> scanUrls(Set<URL> scanRoots)
+  private Set<String> scanUrls(
+      Set<URL> scanRoots,
+      Set<URL> prechecked,
+      Map<String, byte[]> contents,
+      PackageFilter filter,
+      ScanCache cache,
+      ScanManifest manifest,
+      SharedState shared
+      )
       throws
         MojoFailureException
   {
-    try
+    if (shared.isScanned())
     {
-      AnnotationDB db = new AnnotationDB();
-      for (URL root : scanRoots)
-        db.scanArchives(root);
-
-      Set<String> classes = new HashSet<String>();
-      if (db.getAnnotationIndex().containsKey(Entity.class.getName()))
-        classes.addAll(db.getAnnotationIndex().get(Entity.class.getName()));
-      if (db.getAnnotationIndex().containsKey(MappedSuperclass.class.getName()))
-        classes.addAll(db.getAnnotationIndex().get(MappedSuperclass.class.getName()));
-      if (db.getAnnotationIndex().containsKey(Embeddable.class.getName()))
-        classes.addAll(db.getAnnotationIndex().get(Embeddable.class.getName()));
+      getLog().info("Reusing the result of the scan of a previous goal");
+      /**
+       * Write the manifest of this goal nevertheless: otherwise, the next
+       * build of this goal would have to rescan all class-files
+       */
+      manifest.adopt(shared.getManifest());
+      manifest.save();
+      annotatedPackages.addAll(shared.getPackages());
+      return new HashSet<String>(shared.getClasses());
+    }
 
+    try
+    {
+      ClassScanner scanner =
+          new ClassScanner(
+              getLog(),
+              scanParallel,
+              filter,
+              cache,
+              manifest,
+              prechecked
+              );
+      scanner.retain(contents);
+      Set<String> classes = scanner.scan(scanRoots);
+      manifest.save();
+      /** Separate the annotated packages from the annotated classes */
+      Iterator<String> it = classes.iterator();
+      while (it.hasNext())
+      {
+        String name = it.next();
+        if (ClassScanner.isPackageInfo(name))
+        {
+          it.remove();
+          annotatedPackages.add(ClassScanner.packageOf(name));
+        }
+      }
+      shared.scanned(classes, annotatedPackages, manifest);
       return classes;
     }
     catch (Exception e)
@@ -1252,8 +2308,204 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
     }
   }
 
+  /**
+   * Takes a snapshot of the effective configuration and the stat-data of
+   * the class-path, without bootstrapping Hibernate.
+   *
+   * @return the snapshot, or <code>null</code>, if no snapshot can be
+   *         taken
+   */
+  private Snapshot snapshot(String filename)
+  {
+    long start = System.currentTimeMillis();
+    Snapshot snapshot = new Snapshot(buildDirectory, filename, getLog());
+
+    /** The effective configuration of the goal */
+    snapshot.add(getClass().getName());
+    snapshot.add(filename);
+    snapshot.add(getSharedConfiguration());
+    for (Object value : new Object[] {
+        execute,
+        skipIdentical,
+        isScriptReproducible(),
+        dialect,
+        delimiter,
+        show,
+        format,
+        createNamespaces,
+        implicitNamingStrategy,
+        physicalNamingStrategy,
+        driver,
+        url,
+        targets,
+        username,
+        password,
+        mappings
+        })
+      snapshot.add(value);
+
+    /** Settings, that Hibernate picks up from the system-properties */
+    Properties system = System.getProperties();
+    List<String> names = new ArrayList<String>(system.stringPropertyNames());
+    Collections.sort(names);
+    for (String name : names)
+      if (name.startsWith("hibernate.") || name.startsWith("javax.persistence."))
+        snapshot.add(name + "=" + system.getProperty(name));
+
+    /** The class-path and the scanned dependencies */
+    try
+    {
+      snapshot.stat(new File(outputDirectory));
+      snapshot.stat(new File(testOutputDirectory));
+      for (String element : project.getCompileClasspathElements())
+        snapshot.stat(new File(element));
+      if (Boolean.TRUE.equals(scanTestClasses))
+        for (String element : project.getTestClasspathElements())
+          snapshot.stat(new File(element));
+    }
+    catch (DependencyResolutionRequiredException e)
+    {
+      getLog().debug("No snapshot taken: " + e.getMessage());
+      return null;
+    }
+    for (Artifact artifact : project.getArtifacts())
+      if (artifact.getFile() != null)
+        snapshot.stat(artifact.getFile());
+
+    /** Configuration- and mapping-files, that are given as paths */
+    if (hibernateProperties != null)
+      snapshot.stat(new File(hibernateProperties));
+    if (hibernateConfig != null)
+      snapshot.stat(new File(hibernateConfig));
+    if (mappings != null)
+    {
+      for (String mapping : mappings.split("[\\s,]+"))
+      {
+        snapshot.stat(new File(mapping));
+        for (Resource resource : project.getResources())
+          snapshot.stat(new File(resource.getDirectory(), mapping));
+      }
+    }
+
+    getLog().debug(
+        "Snapshot " + snapshot.getFingerprint() + " taken in " +
+        (System.currentTimeMillis() - start) + " ms"
+        );
+    return snapshot;
+  }
+
+  /**
+   * @return a description of all configuration-values, that affect the
+   *         state, that is shared between the goals (see
+   *         {@link SharedState})
+   */
+  private String getSharedConfiguration()
+  {
+    StringBuilder builder = new StringBuilder();
+    for (Object value : new Object[] {
+        hibernateProperties,
+        hibernateConfig,
+        persistenceUnit,
+        outputDirectory,
+        testOutputDirectory,
+        scanClasses,
+        scanTestClasses,
+        scanDependencies,
+        scanTransitive,
+        scanIncludes,
+        scanExcludes,
+        fingerprint,
+        fingerprintMode
+        })
+    {
+      builder.append(value);
+      builder.append('|');
+    }
+    return builder.toString();
+  }
+
+  /**
+   * @param contents the bytes of the class-files, that were read by the
+   *                 scan, keyed by their location
+   */
+  private void prefetch(
+      Set<String> classes,
+      ClassLoader classLoader,
+      Map<String, byte[]> contents,
+      ModificationTracker tracker
+      )
+      throws
+        MojoExecutionException
+  {
+    Map<String, URL> resources = new HashMap<String, URL>();
+    for (String name : classes)
+    {
+      URL url = classLoader.getResource(name.replace('.', '/') + ".class");
+      if (url != null)
+        resources.put(name, url);
+    }
+    for (String name : annotatedPackages)
+    {
+      URL url =
+          classLoader.getResource(name.replace('.', '/') + "/package-info.class");
+      if (url != null)
+        resources.put(name, url);
+    }
+    /** Hash the bytes, that were read by the scan, if they were loaded */
+    Map<String, byte[]> scanned = new HashMap<String, byte[]>();
+    for (Map.Entry<String, URL> resource : resources.entrySet())
+    {
+      String location = ClassScanner.locationOf(resource.getValue());
+      if (location != null && contents.containsKey(location))
+        scanned.put(resource.getKey(), contents.get(location));
+    }
+    getLog().debug(
+        scanned.size() + " of " + resources.size() +
+        " fingerprints are calculated from the bytes read by the scan"
+        );
+    try
+    {
+      tracker.prefetch(
+          resources,
+          scanned,
+          Runtime.getRuntime().availableProcessors()
+          );
+    }
+    catch (IOException e)
+    {
+      String error = "Error while calculating fingerprints: " + e;
+      getLog().error(error);
+      throw new MojoExecutionException(error, e);
+    }
+  }
+
+  /**
+   * Tracks the annotated class and adds the annotated packages, it belongs
+   * to.
+   * <p>
+   * The class is not loaded: only its class-file is tracked. The name of
+   * the class is added to the given list, so that the class can be loaded
+   * and added later, if the schema has to be generated at all (see
+   * {@link #addAnnotatedClasses(List, MetadataSources, ClassLoaderService)}).
+   * <p>
+   * If the class was found by the scan, the annotated packages are looked
+   * up in the result of the scan. Only for classes, that were not scanned
+   * (i.e., classes, that are explicitly listed in a persistence-unit), the
+   * class-path is probed for a <code>package-info.class</code> in every
+   * parent package.
+   * <p>
+   * If no class-file can be found for the given name, the name denotes a
+   * package: that way, annotated packages found by the scan are added, even
+   * if they do not contain any annotated class.
+   *
+   * @param probe if <code>true</code>, the class-path is probed for the
+   *              <code>package-info.class</code> of the parent packages
+   * @param annotated the list of the annotated classes, to add the class to
+   */
   private void addAnnotated(
       String name,
+      boolean probe,
+      List<String> annotated,
       MetadataSources sources,
       ClassLoaderService classLoaderService,
       ModificationTracker tracker
@@ -1265,57 +2517,41 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
     try
     {
       getLog().info("Adding annotated resource: " + name);
-      String packageName = null;
+      String packageName;
 
-      boolean error = false;
-      try
+      URL url =
+          classLoaderService.locateResource(name.replace('.', '/') + ".class");
+      if (url != null)
       {
-        Class<?> annotatedClass = classLoaderService.classForName(name);
-        String resourceName = annotatedClass.getName();
-        resourceName =
-            resourceName.substring(
-                resourceName.lastIndexOf(".") + 1,
-                resourceName.length()
-                ) + ".class";
-        InputStream is = annotatedClass.getResourceAsStream(resourceName);
-        if (is != null)
-        {
-          if (tracker.track(name, is))
-            getLog().debug("New or modified class: " + name);
-          else
-            getLog().debug("Unchanged class: " + name);
-          sources.addAnnotatedClass(annotatedClass);
-          packageName = annotatedClass.getPackage().getName();
-        }
+        if (tracker.track(name, url))
+          getLog().debug("New or modified class: " + name);
         else
-        {
-          getLog().error("cannot find ressource " + resourceName + " for class " + name);
-          error = true;
-        }
+          getLog().debug("Unchanged class: " + name);
+        annotated.add(name);
+        packageName = ClassScanner.packageOf(name);
       }
-      catch(ClassLoadingException e)
+      else
       {
+        /** No class-file available: the name denotes a package */
         packageName = name;
       }
-      if (error)
-      {
-        throw new MojoExecutionException("error while inspecting annotated class " + name);
-      }
 
-      while (packageName != null)
+      while (packageName != null && packageName.length() > 0)
       {
         if (packages.contains(packageName))
           return;
         String resource = packageName.replace('.', '/') + "/package-info.class";
-        InputStream is = classLoaderService.locateResourceStream(resource);
-        if (is == null)
+        url = null;
+        if (probe || annotatedPackages.contains(packageName))
+          url = classLoaderService.locateResource(resource);
+        if (url == null)
         {
           // No compiled package-info available: no package-level annotations!
           getLog().debug("Package " + packageName + " is not annotated.");
         }
         else
         {
-          if (tracker.track(packageName, is))
+          if (tracker.track(packageName, url))
             getLog().debug("New or modified package: " + packageName);
           else
            getLog().debug("Unchanged package: " + packageName);
@@ -1337,6 +2573,31 @@ public abstract class AbstractSchemaMojo extends AbstractMojo
     }
   }
 
+  /**
+   * Loads the annotated classes and adds them to the sources.
+   */
+  private void addAnnotatedClasses(
+      List<String> annotated,
+      MetadataSources sources,
+      ClassLoaderService classLoaderService
+      )
+      throws
+        MojoFailureException
+  {
+    for (String name : annotated)
+    {
+      try
+      {
+        sources.addAnnotatedClass(classLoaderService.classForName(name));
+      }
+      catch (Exception e)
+      {
+        getLog().error("Error while loading the annotated class " + name, e);
+        throw new MojoFailureException(e.getMessage());
+      }
+    }
+  }
+
   private ParsedPersistenceXmlDescriptor loadPersistenceUnit(
       ClassLoaderService classLoaderService,
       Properties properties
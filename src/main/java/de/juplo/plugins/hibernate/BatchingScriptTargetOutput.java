@@ -0,0 +1,486 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.maven.plugin.logging.Log;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.jdbc.internal.DDLFormatterImpl;
+import org.hibernate.engine.jdbc.spi.SqlStatementLogger;
+import org.hibernate.tool.schema.spi.CommandAcceptanceException;
+import org.hibernate.tool.schema.spi.ExceptionHandler;
+import org.hibernate.tool.schema.spi.ScriptTargetOutput;
+
+
+
+/**
+ * Executes the generated commands against the database in JDBC-batches.
+ * <p>
+ * Hibernate executes every command in a round-trip of its own. This output
+ * is handed to Hibernate as script-target instead: it collects the
+ * commands and sends them with {@link Statement#addBatch(String)} and
+ * {@link Statement#executeBatch()} in batches of the configured size.
+ * Optionally, the commands are forwarded to another output (i.e., the
+ * script-file), so that the script and the database are served by the
+ * same pass. Like Hibernate, every command is logged through the
+ * {@link SqlStatementLogger} (<code>show</code>), before it is sent.
+ * <p>
+ * Errors are still reported per command through the {@link ExceptionHandler}
+ * of the execution. If a batch fails, the update-counts of the
+ * {@link BatchUpdateException} tell, which commands failed. Commands, that
+ * were not executed, because the driver stopped at the first failure, are
+ * executed again in a new batch. If the update-counts are missing, or if
+ * they mark all commands as failed, because the batch was rolled back as a
+ * whole, the commands of the batch are executed again one by one. If the
+ * batch fails with another {@link SQLException}, it is unknown, which
+ * commands were applied: they are reported as failed and not executed again.
+ * <p>
+ * Note, that this depends on the driver: a driver, that rolls back the
+ * whole batch, but reports update-counts for the commands before the
+ * failure, cannot be told apart from a driver, that applied them. For such
+ * drivers, the transactional mode or a batch-size of <code>1</code> should
+ * be used.
+ * <p>
+ * In transactional mode, all commands are executed in one transaction,
+ * that is committed, when the output is released. The first failure
+ * aborts the execution: the transaction is rolled back immediately and
+ * the remaining commands are skipped. Hence, the database is either
+ * migrated completely or not at all.
+ */
+class BatchingScriptTargetOutput implements ScriptTargetOutput
+{
+  /**
+   * The outcome of a command of a failed batch.
+   */
+  enum Outcome
+  {
+    APPLIED,
+    FAILED,
+    UNKNOWN
+  }
+
+
+  private final ScriptTargetOutput next;
+  private final ConnectionProvider provider;
+  private final int size;
+  private final String delimiter;
+  private final ExceptionHandler handler;
+  private final SqlStatementLogger logger;
+  private final Log log;
+  private final boolean transactional;
+
+  private final List<String> batch = new ArrayList<String>();
+  private Connection connection;
+  private boolean autoCommit;
+  private Statement statement;
+  private SQLException unavailable;
+  private int executed;
+  private int batches;
+  private boolean aborted;
+  private int skipped;
+
+
+  /**
+   * @param next the output to forward the commands to, or
+   *             <code>null</code>
+   * @param size the maximal number of commands per batch
+   * @param delimiter the delimiter, that Hibernate appends to the commands
+   *                  of a script, or <code>null</code>
+   * @param logger the logger for the executed commands (<code>show</code>),
+   *               or <code>null</code>
+   */
+  BatchingScriptTargetOutput(
+      ScriptTargetOutput next,
+      ConnectionProvider provider,
+      int size,
+      String delimiter,
+      ExceptionHandler handler,
+      SqlStatementLogger logger,
+      Log log
+      )
+  {
+    this(next, provider, size, delimiter, handler, logger, log, false);
+  }
+
+  /**
+   * @param transactional if <code>true</code>, all commands are executed
+   *                      in a single transaction
+   */
+  BatchingScriptTargetOutput(
+      ScriptTargetOutput next,
+      ConnectionProvider provider,
+      int size,
+      String delimiter,
+      ExceptionHandler handler,
+      SqlStatementLogger logger,
+      Log log,
+      boolean transactional
+      )
+  {
+    this.next = next;
+    this.provider = provider;
+    this.size = size;
+    this.delimiter = delimiter;
+    this.handler = handler;
+    this.logger = logger;
+    this.log = log;
+    this.transactional = transactional;
+  }
+
+
+  @Override
+  public void prepare()
+  {
+    if (next != null)
+      next.prepare();
+    try
+    {
+      connection = provider.getConnection();
+      autoCommit = connection.getAutoCommit();
+      if (autoCommit == transactional)
+        connection.setAutoCommit(!transactional);
+      statement = connection.createStatement();
+    }
+    catch (SQLException e)
+    {
+      unavailable = e;
+    }
+  }
+
+  @Override
+  public void accept(String command)
+  {
+    if (next != null)
+      next.accept(command);
+
+    if (delimiter != null && command.endsWith(delimiter))
+      command = command.substring(0, command.length() - delimiter.length());
+    if (unavailable != null)
+      throw new CommandAcceptanceException(
+          "Error executing DDL \"" + command + "\" via JDBC Statement: " +
+          unavailable.getMessage(),
+          unavailable
+          );
+
+    if (aborted)
+    {
+      skipped++;
+      return;
+    }
+    /** Hibernate logs the commands, that it executes itself, the same way */
+    if (logger != null)
+      logger.logStatement(command, DDLFormatterImpl.INSTANCE);
+    batch.add(command);
+    if (batch.size() >= size)
+      flush();
+  }
+
+  @Override
+  public void release()
+  {
+    try
+    {
+      if (statement != null)
+        flush();
+    }
+    finally
+    {
+      try
+      {
+        if (statement != null)
+          statement.close();
+        if (statement != null && transactional)
+          finish();
+        if (connection != null && autoCommit == transactional)
+          connection.setAutoCommit(autoCommit);
+        if (connection != null)
+          provider.closeConnection(connection);
+      }
+      catch (SQLException e)
+      {
+        log.warn("Error while releasing the JDBC-connection: " + e.getMessage());
+      }
+      statement = null;
+      connection = null;
+      log.debug(
+          "Executed " + executed + " commands in " + batches +
+          " batch(es) of up to " + size + " commands"
+          );
+      if (next != null)
+        next.release();
+    }
+  }
+
+
+  /**
+   * Commits the transaction, if no command failed.
+   * <p>
+   * If a command failed, the transaction was already rolled back by
+   * {@link #abort(int)}.
+   */
+  private void finish() throws SQLException
+  {
+    if (!aborted)
+    {
+      try
+      {
+        connection.commit();
+        log.debug("Committed the transaction");
+        return;
+      }
+      catch (SQLException e)
+      {
+        abort(0);
+        failed("COMMIT", e);
+      }
+    }
+    log.warn(
+        "Rolled back the transaction: no changes were applied to the " +
+        "database, " + skipped + " command(s) were skipped after the error"
+        );
+  }
+
+  private void flush()
+  {
+    List<String> commands = new ArrayList<String>(batch);
+    batch.clear();
+    while (!commands.isEmpty() && !aborted)
+    {
+      try
+      {
+        for (String command : commands)
+          statement.addBatch(command);
+      }
+      catch (SQLException e)
+      {
+        /** Nothing was sent yet: execute the commands one by one */
+        log.debug("Cannot batch the commands: " + e.getMessage());
+        clear();
+        execute(commands);
+        commands.clear();
+        continue;
+      }
+      try
+      {
+        batches++;
+        statement.executeBatch();
+        executed += commands.size();
+        commands.clear();
+      }
+      catch (BatchUpdateException e)
+      {
+        clear();
+        Outcome[] outcomes = outcomes(e.getUpdateCounts(), commands.size());
+        List<String> failures = new ArrayList<String>();
+        List<String> unknown = new ArrayList<String>();
+        for (int i = 0; i < outcomes.length; i++)
+        {
+          switch (outcomes[i])
+          {
+            case FAILED:
+              failures.add(commands.get(i));
+              executed++;
+              break;
+            case APPLIED:
+              executed++;
+              break;
+            default:
+              unknown.add(commands.get(i));
+          }
+        }
+        boolean known = unknown.size() < commands.size();
+        if (transactional)
+        {
+          /** Roll back, before the failure is reported */
+          abort(known ? unknown.size() : 0);
+          if (!known)
+            failures.add(join(commands));
+        }
+        for (String command : failures)
+          failed(command, e);
+        if (transactional)
+        {
+          commands.clear();
+        }
+        else if (known)
+        {
+          /** Execute the commands, that were not reached, in a new batch */
+          commands = unknown;
+        }
+        else
+        {
+          /**
+           * The update-counts are inconclusive or tell, that the batch was
+           * rolled back as a whole: execute the commands one by one
+           */
+          log.debug("Executing the failed batch command by command");
+          execute(unknown);
+          commands.clear();
+        }
+      }
+      catch (SQLException e)
+      {
+        /**
+         * The batch failed as a whole and it is unknown, which commands
+         * were applied: hence, the commands are not executed again
+         */
+        clear();
+        if (transactional)
+        {
+          /** The transaction cannot be continued */
+          abort(0);
+          failed(join(commands), e);
+        }
+        else
+        {
+          for (String command : commands)
+            failed(command, e);
+        }
+        executed += commands.size();
+        commands.clear();
+      }
+    }
+  }
+
+  /**
+   * Executes the commands one by one.
+   */
+  private void execute(List<String> commands)
+  {
+    for (String command : commands)
+    {
+      if (aborted)
+      {
+        skipped++;
+        continue;
+      }
+      try
+      {
+        statement.execute(command);
+      }
+      catch (SQLException e)
+      {
+        if (transactional)
+          abort(0);
+        failed(command, e);
+      }
+      executed++;
+    }
+  }
+
+  /**
+   * Maps the update-counts of a failed batch to the outcomes of its
+   * commands.
+   * <p>
+   * If the driver stopped at the first failure, the commands before it
+   * were applied and the commands after it were not executed. If the
+   * driver continued, every command, that is not marked as failed, was
+   * applied. If no update-counts are available, or if all commands are
+   * marked as failed, because the batch was rolled back as a whole, the
+   * outcome of every command is unknown.
+   *
+   * @param counts the update-counts of the {@link BatchUpdateException}
+   * @param size the number of commands in the batch
+   */
+  static Outcome[] outcomes(int[] counts, int size)
+  {
+    Outcome[] outcomes = new Outcome[size];
+    Arrays.fill(outcomes, Outcome.UNKNOWN);
+    if (counts == null || counts.length == 0 || counts.length > size)
+      return outcomes;
+
+    int failed = 0;
+    for (int count : counts)
+      if (count == Statement.EXECUTE_FAILED)
+        failed++;
+
+    if (counts.length < size)
+    {
+      /**
+       * The driver stopped at the first failed command. A failure within
+       * the processed commands contradicts that: the counts are inconclusive
+       */
+      if (failed > 0)
+        return outcomes;
+      for (int i = 0; i < counts.length; i++)
+        outcomes[i] = Outcome.APPLIED;
+      outcomes[counts.length] = Outcome.FAILED;
+      return outcomes;
+    }
+
+    /** The driver continued after a failed command */
+    if (failed == size)
+      return outcomes;
+    for (int i = 0; i < size; i++)
+      outcomes[i] =
+          counts[i] == Statement.EXECUTE_FAILED
+              ? Outcome.FAILED
+              : Outcome.APPLIED;
+    return outcomes;
+  }
+
+  private static String join(List<String> commands)
+  {
+    StringBuilder builder = new StringBuilder();
+    for (String command : commands)
+    {
+      if (builder.length() > 0)
+        builder.append("; ");
+      builder.append(command);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Rolls back the transaction right after the first failure. Otherwise,
+   * every further statement on the connection fails on databases like
+   * PostgreSQL, including the queries for the metadata of the tables, that
+   * Hibernate issues on the same connection during an update.
+   */
+  private void abort(int remaining)
+  {
+    aborted = true;
+    skipped += remaining;
+    batch.clear();
+    try
+    {
+      connection.rollback();
+      log.debug("Rolled back the transaction after the first error");
+    }
+    catch (SQLException e)
+    {
+      log.warn("Error while rolling back the transaction: " + e.getMessage());
+    }
+  }
+
+  private void clear()
+  {
+    try
+    {
+      statement.clearBatch();
+    }
+    catch (SQLException e)
+    {
+      log.debug("Cannot clear the batch: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Reports a command, that failed.
+   */
+  void failed(String command, SQLException e)
+  {
+    handler.handleException(
+        new CommandAcceptanceException(
+            "Error executing DDL \"" + command + "\" via JDBC Statement: " +
+            e.getMessage(),
+            e
+            )
+        );
+  }
+}
@@ -0,0 +1,581 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+
+
+/**
+ * Minimal reader for compiled classes.
+ * <p>
+ * Only the parts of the class-file, that are needed to decide, if a class
+ * carries one of the annotations, we are looking for, are parsed.
+ * The class is never loaded.
+ */
+class ClassFile
+{
+  final static Charset UTF8 = Charset.forName("UTF-8");
+
+  private final static int MAGIC = 0xCAFEBABE;
+
+  private final static int UTF8_INFO = 1;
+  private final static int INTEGER_INFO = 3;
+  private final static int FLOAT_INFO = 4;
+  private final static int LONG_INFO = 5;
+  private final static int DOUBLE_INFO = 6;
+  private final static int CLASS_INFO = 7;
+  private final static int STRING_INFO = 8;
+  private final static int FIELDREF_INFO = 9;
+  private final static int METHODREF_INFO = 10;
+  private final static int INTERFACE_METHODREF_INFO = 11;
+  private final static int NAME_AND_TYPE_INFO = 12;
+  private final static int METHOD_HANDLE_INFO = 15;
+  private final static int METHOD_TYPE_INFO = 16;
+  private final static int DYNAMIC_INFO = 17;
+  private final static int INVOKE_DYNAMIC_INFO = 18;
+  private final static int MODULE_INFO = 19;
+  private final static int PACKAGE_INFO = 20;
+
+  private final static int ACC_SYNTHETIC = 0x1000;
+
+  private final static String RUNTIME_VISIBLE_ANNOTATIONS =
+      "RuntimeVisibleAnnotations";
+  private final static String SIGNATURE = "Signature";
+  private final static String CONSTANT_VALUE = "ConstantValue";
+
+
+  private final byte[] bytes;
+  private final int[] pool;
+  private final int header;
+  private final String name;
+  private final Set<String> annotations = new LinkedHashSet<String>();
+
+
+  /**
+   * Checks, if the constant-pool of the given class-file contains at least
+   * one of the given UTF8-constants.
+   * <p>
+   * Only the constant-pool is inspected and no objects are created.
+   * Hence, this check is cheap enough to be performed for every class, that
+   * is found during the scan.
+   *
+   * @param bytes the content of the class-file
+   * @param constants the UTF8-encoded constants to look for
+   * @return <code>true</code>, if at least one of the constants was found
+   */
+  static boolean references(byte[] bytes, byte[][] constants)
+  {
+    try
+    {
+      if (bytes.length < 10 || u4(bytes, 0) != MAGIC)
+        return false;
+      int count = u2(bytes, 8);
+      int p = 10;
+      for (int i = 1; i < count; i++)
+      {
+        int tag = bytes[p] & 0xff;
+        if (tag == UTF8_INFO)
+        {
+          int length = u2(bytes, p + 1);
+          for (byte[] constant : constants)
+            if (constant.length == length && equals(bytes, p + 3, constant))
+              return true;
+          p += 3 + length;
+        }
+        else
+        {
+          p += size(tag);
+          if (tag == LONG_INFO || tag == DOUBLE_INFO)
+            i++;
+        }
+      }
+      return false;
+    }
+    catch (ArrayIndexOutOfBoundsException e)
+    {
+      return false;
+    }
+    catch (IOException e)
+    {
+      return false;
+    }
+  }
+
+
+  /**
+   * Checks, if the constant-pool of the class-file, that is read from the
+   * given stream, contains a UTF8-constant, that contains the given prefix.
+   * <p>
+   * The stream is only read up to the first matching constant or the end
+   * of the constant-pool. Hence, the remainder of the class-file (fields,
+   * methods and their code) is never read or inflated.
+   *
+   * @param is the stream to read the class-file from
+   * @param prefix the UTF8-encoded bytes to look for
+   * @return <code>true</code>, if a constant containing the prefix was found
+   */
+  static boolean references(InputStream is, byte[] prefix) throws IOException
+  {
+    DataInputStream dis = new DataInputStream(is);
+    try
+    {
+      if (dis.readInt() != MAGIC)
+        return false;
+      dis.readInt(); // minor_version and major_version
+      int count = dis.readUnsignedShort();
+      byte[] buffer = new byte[256];
+      for (int i = 1; i < count; i++)
+      {
+        int tag = dis.readUnsignedByte();
+        if (tag == UTF8_INFO)
+        {
+          int length = dis.readUnsignedShort();
+          if (length > buffer.length)
+            buffer = new byte[length];
+          dis.readFully(buffer, 0, length);
+          if (contains(buffer, length, prefix))
+            return true;
+        }
+        else
+        {
+          dis.readFully(buffer, 0, size(tag) - 1);
+          if (tag == LONG_INFO || tag == DOUBLE_INFO)
+            i++;
+        }
+      }
+      return false;
+    }
+    catch (EOFException e)
+    {
+      return false;
+    }
+  }
+
+
+  /**
+   * Parses the given class-file.
+   *
+   * @param bytes the content of the class-file
+   * @throws IOException if the content is not a valid class-file
+   */
+  ClassFile(byte[] bytes) throws IOException
+  {
+    this.bytes = bytes;
+    try
+    {
+      if (bytes.length < 10 || u4(bytes, 0) != MAGIC)
+        throw new IOException("Not a class-file: bad magic number");
+
+      /** Remember the offsets of all entries in the constant-pool */
+      pool = new int[u2(bytes, 8)];
+      int p = 10;
+      for (int i = 1; i < pool.length; i++)
+      {
+        pool[i] = p;
+        int tag = bytes[p] & 0xff;
+        if (tag == UTF8_INFO)
+          p += 3 + u2(bytes, p + 1);
+        else
+        {
+          p += size(tag);
+          if (tag == LONG_INFO || tag == DOUBLE_INFO)
+            i++;
+        }
+      }
+
+      /** access_flags, this_class and super_class */
+      header = p;
+      name = className(u2(bytes, p + 2));
+      p += 6;
+
+      /** interfaces */
+      p += 2 + 2 * u2(bytes, p);
+
+      /** fields and methods */
+      for (int k = 0; k < 2; k++)
+      {
+        int members = u2(bytes, p);
+        p += 2;
+        for (int i = 0; i < members; i++)
+          p = skipAttributes(p + 6);
+      }
+
+      /** attributes of the class */
+      int attributes = u2(bytes, p);
+      p += 2;
+      for (int i = 0; i < attributes; i++)
+      {
+        String attribute = utf8(u2(bytes, p));
+        int length = u4(bytes, p + 2);
+        if (RUNTIME_VISIBLE_ANNOTATIONS.equals(attribute))
+        {
+          int q = p + 6;
+          int count = u2(bytes, q);
+          q += 2;
+          for (int j = 0; j < count; j++)
+          {
+            annotations.add(descriptorToName(utf8(u2(bytes, q))));
+            q = skipAnnotation(q);
+          }
+        }
+        p += 6 + length;
+      }
+    }
+    catch (ArrayIndexOutOfBoundsException e)
+    {
+      throw new IOException("Truncated or corrupt class-file", e);
+    }
+  }
+
+
+  /**
+   * @return the fully qualified name of the class
+   */
+  String getName()
+  {
+    return name;
+  }
+
+  /**
+   * @return the fully qualified names of all runtime-visible annotations of
+   *         the class
+   */
+  Set<String> getAnnotations()
+  {
+    return annotations;
+  }
+
+
+  /**
+   * Extracts the parts of the class, that are relevant for the mapping.
+   * <p>
+   * The result contains the access-flags, the name, the super-class and the
+   * interfaces of the class, and the access-flags, names, descriptors and
+   * generic signatures of all fields and methods, together with all
+   * runtime-visible annotations and their values. All references into the
+   * constant-pool are resolved, so that the result does not depend on the
+   * layout of the constant-pool.
+   * <p>
+   * Code, debug-information (line-numbers, local variables, source-file)
+   * and synthetic members, that are generated by the compiler, are left
+   * out. Hence, the result only changes, if something was changed, that
+   * might affect the mapping.
+   *
+   * @return a canonical representation of the mapping-relevant parts
+   * @throws IOException if the class-file is corrupt
+   */
+  byte[] getMappingSignature() throws IOException
+  {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length / 2);
+    DataOutputStream dos = new DataOutputStream(baos);
+    try
+    {
+      int p = header;
+      dos.writeShort(u2(bytes, p));
+      dos.writeUTF(name);
+      int index = u2(bytes, p + 4);
+      dos.writeUTF(index == 0 ? "" : className(index));
+      p += 6;
+
+      int interfaces = u2(bytes, p);
+      dos.writeShort(interfaces);
+      p += 2;
+      for (int i = 0; i < interfaces; i++, p += 2)
+        dos.writeUTF(className(u2(bytes, p)));
+
+      /** fields and methods */
+      for (int k = 0; k < 2; k++)
+      {
+        int members = u2(bytes, p);
+        p += 2;
+        for (int i = 0; i < members; i++)
+        {
+          int flags = u2(bytes, p);
+          if ((flags & ACC_SYNTHETIC) != 0)
+          {
+            p = skipAttributes(p + 6);
+            continue;
+          }
+          dos.writeByte(k);
+          dos.writeShort(flags);
+          dos.writeUTF(utf8(u2(bytes, p + 2)));
+          dos.writeUTF(utf8(u2(bytes, p + 4)));
+          p = writeAttributes(dos, p + 6);
+        }
+      }
+
+      /** attributes of the class */
+      dos.writeByte(2);
+      writeAttributes(dos, p);
+      dos.flush();
+    }
+    catch (ArrayIndexOutOfBoundsException e)
+    {
+      throw new IOException("Truncated or corrupt class-file", e);
+    }
+    return baos.toByteArray();
+  }
+
+  /**
+   * Writes the mapping-relevant attributes in a canonical form.
+   *
+   * @return the position after the attributes
+   */
+  private int writeAttributes(DataOutputStream dos, int p) throws IOException
+  {
+    int count = u2(bytes, p);
+    p += 2;
+    for (int i = 0; i < count; i++)
+    {
+      String attribute = utf8(u2(bytes, p));
+      int length = u4(bytes, p + 2);
+      if (RUNTIME_VISIBLE_ANNOTATIONS.equals(attribute))
+      {
+        dos.writeUTF(attribute);
+        int q = p + 6;
+        int annotations = u2(bytes, q);
+        dos.writeShort(annotations);
+        q += 2;
+        for (int j = 0; j < annotations; j++)
+          q = writeAnnotation(dos, q);
+      }
+      else if (SIGNATURE.equals(attribute))
+      {
+        dos.writeUTF(attribute);
+        dos.writeUTF(utf8(u2(bytes, p + 6)));
+      }
+      else if (CONSTANT_VALUE.equals(attribute))
+      {
+        dos.writeUTF(attribute);
+        writeConstant(dos, u2(bytes, p + 6));
+      }
+      p += 6 + length;
+    }
+    return p;
+  }
+
+  private int writeAnnotation(DataOutputStream dos, int p) throws IOException
+  {
+    dos.writeUTF(utf8(u2(bytes, p)));
+    int pairs = u2(bytes, p + 2);
+    dos.writeShort(pairs);
+    p += 4;
+    for (int i = 0; i < pairs; i++)
+    {
+      dos.writeUTF(utf8(u2(bytes, p)));
+      p = writeElementValue(dos, p + 2);
+    }
+    return p;
+  }
+
+  private int writeElementValue(DataOutputStream dos, int p) throws IOException
+  {
+    char tag = (char)(bytes[p] & 0xff);
+    dos.writeByte(tag);
+    switch (tag)
+    {
+      case 'B':
+      case 'C':
+      case 'D':
+      case 'F':
+      case 'I':
+      case 'J':
+      case 'S':
+      case 'Z':
+      case 's':
+        writeConstant(dos, u2(bytes, p + 1));
+        return p + 3;
+      case 'c':
+        dos.writeUTF(utf8(u2(bytes, p + 1)));
+        return p + 3;
+      case 'e':
+        dos.writeUTF(utf8(u2(bytes, p + 1)));
+        dos.writeUTF(utf8(u2(bytes, p + 3)));
+        return p + 5;
+      case '@':
+        return writeAnnotation(dos, p + 1);
+      case '[':
+        int count = u2(bytes, p + 1);
+        dos.writeShort(count);
+        p += 3;
+        for (int i = 0; i < count; i++)
+          p = writeElementValue(dos, p);
+        return p;
+      default:
+        throw new IOException("Unknown element-value tag: " + tag);
+    }
+  }
+
+  private void writeConstant(DataOutputStream dos, int index)
+      throws
+        IOException
+  {
+    int p = pool[index];
+    int tag = bytes[p] & 0xff;
+    dos.writeByte(tag);
+    switch (tag)
+    {
+      case UTF8_INFO:
+        dos.writeUTF(utf8(index));
+        break;
+      case STRING_INFO:
+        dos.writeUTF(utf8(u2(bytes, p + 1)));
+        break;
+      case INTEGER_INFO:
+      case FLOAT_INFO:
+      case LONG_INFO:
+      case DOUBLE_INFO:
+        dos.write(bytes, p + 1, size(tag) - 1);
+        break;
+      default:
+        throw new IOException("Constant #" + index + " is not a value");
+    }
+  }
+
+
+  private String utf8(int index) throws IOException
+  {
+    int p = pool[index];
+    if ((bytes[p] & 0xff) != UTF8_INFO)
+      throw new IOException("Constant #" + index + " is not an UTF8-constant");
+    return new String(bytes, p + 3, u2(bytes, p + 1), UTF8);
+  }
+
+  private String className(int index) throws IOException
+  {
+    int p = pool[index];
+    if ((bytes[p] & 0xff) != CLASS_INFO)
+      throw new IOException("Constant #" + index + " is not a class-constant");
+    return utf8(u2(bytes, p + 1)).replace('/', '.');
+  }
+
+  private int skipAttributes(int p)
+  {
+    int count = u2(bytes, p);
+    p += 2;
+    for (int i = 0; i < count; i++)
+      p += 6 + u4(bytes, p + 2);
+    return p;
+  }
+
+  private int skipAnnotation(int p) throws IOException
+  {
+    int pairs = u2(bytes, p + 2);
+    p += 4;
+    for (int i = 0; i < pairs; i++)
+      p = skipElementValue(p + 2);
+    return p;
+  }
+
+  private int skipElementValue(int p) throws IOException
+  {
+    char tag = (char)(bytes[p] & 0xff);
+    switch (tag)
+    {
+      case 'B':
+      case 'C':
+      case 'D':
+      case 'F':
+      case 'I':
+      case 'J':
+      case 'S':
+      case 'Z':
+      case 's':
+      case 'c':
+        return p + 3;
+      case 'e':
+        return p + 5;
+      case '@':
+        return skipAnnotation(p + 1);
+      case '[':
+        int count = u2(bytes, p + 1);
+        p += 3;
+        for (int i = 0; i < count; i++)
+          p = skipElementValue(p);
+        return p;
+      default:
+        throw new IOException("Unknown element-value tag: " + tag);
+    }
+  }
+
+
+  static String descriptorToName(String descriptor)
+  {
+    if (descriptor.startsWith("L") && descriptor.endsWith(";"))
+      descriptor = descriptor.substring(1, descriptor.length() - 1);
+    return descriptor.replace('/', '.');
+  }
+
+  static byte[] nameToDescriptor(String name)
+  {
+    return ("L" + name.replace('.', '/') + ";").getBytes(UTF8);
+  }
+
+
+  private static int size(int tag) throws IOException
+  {
+    switch (tag)
+    {
+      case CLASS_INFO:
+      case STRING_INFO:
+      case METHOD_TYPE_INFO:
+      case MODULE_INFO:
+      case PACKAGE_INFO:
+        return 3;
+      case METHOD_HANDLE_INFO:
+        return 4;
+      case INTEGER_INFO:
+      case FLOAT_INFO:
+      case FIELDREF_INFO:
+      case METHODREF_INFO:
+      case INTERFACE_METHODREF_INFO:
+      case NAME_AND_TYPE_INFO:
+      case DYNAMIC_INFO:
+      case INVOKE_DYNAMIC_INFO:
+        return 5;
+      case LONG_INFO:
+      case DOUBLE_INFO:
+        return 9;
+      default:
+        throw new IOException("Unknown constant-pool tag: " + tag);
+    }
+  }
+
+  private static boolean equals(byte[] bytes, int offset, byte[] constant)
+  {
+    for (int i = 0; i < constant.length; i++)
+      if (bytes[offset + i] != constant[i])
+        return false;
+    return true;
+  }
+
+  private static boolean contains(byte[] bytes, int length, byte[] prefix)
+  {
+    for (int i = 0; i <= length - prefix.length; i++)
+      if (equals(bytes, i, prefix))
+        return true;
+    return false;
+  }
+
+  static int u2(byte[] bytes, int p)
+  {
+    return ((bytes[p] & 0xff) << 8) | (bytes[p + 1] & 0xff);
+  }
+
+  static int u4(byte[] bytes, int p)
+  {
+    return
+        ((bytes[p] & 0xff) << 24) |
+        ((bytes[p + 1] & 0xff) << 16) |
+        ((bytes[p + 2] & 0xff) << 8) |
+        (bytes[p + 3] & 0xff);
+  }
+}
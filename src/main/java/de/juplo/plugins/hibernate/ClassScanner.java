@@ -0,0 +1,911 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import javax.persistence.MappedSuperclass;
+import org.apache.maven.plugin.logging.Log;
+import org.jboss.jandex.AnnotationInstance;
+import org.jboss.jandex.AnnotationTarget;
+import org.jboss.jandex.ClassInfo;
+import org.jboss.jandex.DotName;
+import org.jboss.jandex.Index;
+import org.jboss.jandex.IndexReader;
+
+
+
+/**
+ * Scans directories and archives for classes, that are annotated with
+ * {@link Entity}, {@link MappedSuperclass} or {@link Embeddable}.
+ * <p>
+ * Each class-file is pre-filtered by a look into its constant-pool: only
+ * classes, that reference at least one of the searched annotations, are
+ * parsed any further.
+ * <p>
+ * The scan is split up into fork/join-tasks per scan-root, per directory
+ * and per batch of archive-entries. If the parallel mode is switched on,
+ * these tasks are distributed over all available processors.
+ * <p>
+ * If a {@link ScanManifest} is given, class-files in scanned directories,
+ * whose size and modification-time are unchanged, are not read again.
+ * <p>
+ * Archives, that ship an index written by the goal <code>index</code>
+ * (see {@link EntityIndex}) or a prebuilt Jandex-index
+ * (<code>META-INF/jandex.idx</code>) are not scanned at all: the annotated
+ * classes are looked up in the index.
+ * Indexes are not used for directories, because the index in a
+ * classes-directory of a module, that is currently build, may be stale.
+ * <p>
+ * Annotated packages are discovered during the same scan: the name of a
+ * <code>package-info</code>-class, that carries any annotations, is
+ * returned together with the names of the annotated classes (see
+ * {@link #isPackageInfo(String)}). Hence, the class-path does not have to
+ * be probed for the <code>package-info.class</code> of every package.
+ * <p>
+ * Archives, that are registered for a pre-check, are only scanned, if at
+ * least one of their classes references anything from the package
+ * <code>javax.persistence</code>. The pre-check stops at the first hit and
+ * reads each class-file only up to the end of its constant-pool.
+ * <p>
+ * A {@link PackageFilter} prunes the scan as early as possible: directories
+ * and archive-entries, that cannot match, are skipped before any bytes are
+ * read, and classes found in an index are filtered by their package.
+ */
+class ClassScanner
+{
+  final static String[] ANNOTATIONS =
+      new String[]
+      {
+        Entity.class.getName(),
+        MappedSuperclass.class.getName(),
+        Embeddable.class.getName()
+      };
+
+  final static byte[][] DESCRIPTORS;
+
+  static
+  {
+    DESCRIPTORS = new byte[ANNOTATIONS.length][];
+    for (int i = 0; i < ANNOTATIONS.length; i++)
+      DESCRIPTORS[i] = ClassFile.nameToDescriptor(ANNOTATIONS[i]);
+  }
+
+
+  /** Maximum number of class-files, that are scanned by one task */
+  private final static int BATCH = 256;
+
+  final static String JANDEX_INDEX = "META-INF/jandex.idx";
+
+  private final static byte[] PERSISTENCE =
+      "javax/persistence/".getBytes(ClassFile.UTF8);
+
+  private final static String PACKAGE_INFO = "package-info";
+  private final static String PACKAGE_INFO_CLASS = PACKAGE_INFO + ".class";
+
+
+  private final Log log;
+  private final boolean parallel;
+  private final PackageFilter filter;
+  private final ScanCache cache;
+  private final ScanManifest manifest;
+  private final Set<URL> prechecked;
+  private Map<String, byte[]> retained;
+  private Map<String, String> classified;
+
+  private final AtomicInteger scanned = new AtomicInteger();
+  private final AtomicInteger parsed = new AtomicInteger();
+  private final AtomicInteger cached = new AtomicInteger();
+  private final AtomicInteger unchanged = new AtomicInteger();
+  private final AtomicInteger indexed = new AtomicInteger();
+  private final AtomicInteger skipped = new AtomicInteger();
+
+
+  ClassScanner(
+      Log log,
+      boolean parallel,
+      PackageFilter filter,
+      ScanCache cache,
+      ScanManifest manifest,
+      Set<URL> prechecked
+      )
+  {
+    this.log = log;
+    this.parallel = parallel;
+    this.filter = filter;
+    this.cache = cache;
+    this.manifest = manifest;
+    this.prechecked = prechecked;
+  }
+
+
+  /**
+   * Remembers the bytes of the annotated classes and packages, that are
+   * read during the scan.
+   * <p>
+   * The bytes are stored in the given map, keyed by the location of the
+   * class-file (see {@link #locationOf(URL)}). Hence, they can be hashed by
+   * the {@link ModificationTracker} without reading them again.
+   */
+  void retain(Map<String, byte[]> bytes)
+  {
+    retained = bytes;
+  }
+
+  /**
+   * Remembers the annotation, that qualified each annotated class, that is
+   * parsed during the scan.
+   * <p>
+   * The map is keyed by the name of the class. Classes, that are taken from
+   * the cache, the manifest or an index, are not parsed and, hence, not
+   * classified.
+   */
+  void classify(Map<String, String> annotations)
+  {
+    classified = annotations;
+  }
+
+  /**
+   * @return the key, under which the bytes of the given resource are
+   *         retained, or <code>null</code>, if the resource cannot be
+   *         retained
+   */
+  static String locationOf(URL resource)
+  {
+    try
+    {
+      if ("file".equals(resource.getProtocol()))
+        return toFile(resource).getAbsolutePath();
+      if ("jar".equals(resource.getProtocol()))
+      {
+        String path = resource.getPath();
+        int i = path.indexOf("!/");
+        if (i > 0)
+        {
+          URL url = new URL(path.substring(0, i));
+          if ("file".equals(url.getProtocol()))
+            return toFile(url).getAbsolutePath() + path.substring(i);
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      /** Not retainable */
+    }
+    return null;
+  }
+
+
+  Set<String> scan(Set<URL> roots) throws IOException
+  {
+    long start = System.currentTimeMillis();
+    int threads = parallel ? Runtime.getRuntime().availableProcessors() : 1;
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    Set<String> classes;
+    try
+    {
+      classes = pool.invoke(new RootsTask(roots));
+    }
+    catch (ScanException e)
+    {
+      throw e.getCause();
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+    log.info(
+        "Scanned " + scanned + " classes in " + roots.size() + " roots (" +
+        cached + " taken from the cache, " + indexed +
+        " looked up in an index, " + skipped +
+        " skipped by the pre-check, " + unchanged +
+        " unchanged class-files skipped) in " +
+        (System.currentTimeMillis() - start) + " ms with " + threads +
+        " thread(s): " + parsed + " candidates parsed, " + classes.size() +
+        " annotated classes and packages found"
+        );
+    return classes;
+  }
+
+
+  private Set<String> scan(URL root) throws IOException
+  {
+    log.debug("Scanning " + root);
+    if ("file".equals(root.getProtocol()))
+    {
+      File file = toFile(root);
+      if (file.isDirectory())
+        return new DirectoryTask(file, "").compute();
+      if (file.isFile())
+        return new ArchiveTask(file, "").compute();
+      log.warn("Ignoring missing scan-root " + file.getAbsolutePath());
+      return new HashSet<String>();
+    }
+
+    if ("jar".equals(root.getProtocol()))
+    {
+      String path = root.getPath();
+      int i = path.indexOf("!/");
+      if (i > 0)
+      {
+        URL url = new URL(path.substring(0, i));
+        if ("file".equals(url.getProtocol()))
+          return new ArchiveTask(toFile(url), path.substring(i + 2)).compute();
+      }
+    }
+
+    /** Fallback: read the root sequentially as a stream */
+    Set<String> classes = new HashSet<String>();
+    ZipInputStream zis = new ZipInputStream(root.openStream());
+    try
+    {
+      ZipEntry entry;
+      while ((entry = zis.getNextEntry()) != null)
+        if (!entry.isDirectory()
+            && entry.getName().endsWith(".class")
+            && filter.acceptsPath(entry.getName()))
+          add(
+              classes,
+              scan(zis, (int)entry.getSize(), root + "!/" + entry.getName())
+              );
+    }
+    finally
+    {
+      zis.close();
+    }
+    return classes;
+  }
+
+  private void scan(File file, Set<String> classes) throws IOException
+  {
+    if (manifest != null)
+    {
+      ScanManifest.Entry entry = manifest.lookup(file);
+      if (entry != null)
+      {
+        unchanged.incrementAndGet();
+        add(classes, entry.name);
+        return;
+      }
+    }
+
+    long size = file.length();
+    long modified = file.lastModified();
+    String name;
+    InputStream is = new FileInputStream(file);
+    try
+    {
+      name = scan(is, (int)size, file.getAbsolutePath());
+    }
+    finally
+    {
+      is.close();
+    }
+    add(classes, name);
+    if (manifest != null)
+      manifest.record(file, size, modified, name);
+  }
+
+  private void scan(ZipFile archive, ZipEntry entry, Set<String> classes)
+      throws
+        IOException
+  {
+    InputStream is = archive.getInputStream(entry);
+    try
+    {
+      String location =
+          new File(archive.getName()).getAbsolutePath() + "!/" +
+          entry.getName();
+      add(classes, scan(is, (int)entry.getSize(), location));
+    }
+    finally
+    {
+      is.close();
+    }
+  }
+
+  /**
+   * @param name the location of the class-file
+   * @return the name of the class, if it is annotated, or <code>null</code>
+   */
+  private String scan(InputStream is, int size, String name)
+      throws
+        IOException
+  {
+    scanned.incrementAndGet();
+    byte[] bytes = read(is, size);
+    boolean info = name.endsWith(PACKAGE_INFO_CLASS);
+    if (!info && !ClassFile.references(bytes, DESCRIPTORS))
+      return null;
+
+    parsed.incrementAndGet();
+    try
+    {
+      ClassFile classFile = new ClassFile(bytes);
+      if (info)
+      {
+        if (classFile.getAnnotations().isEmpty())
+          return null;
+        log.debug("Found annotated package " + packageOf(classFile.getName()));
+        return retain(name, bytes, classFile.getName());
+      }
+      for (String annotation : ANNOTATIONS)
+      {
+        if (classFile.getAnnotations().contains(annotation))
+        {
+          log.debug("Found annotated class " + classFile.getName());
+          if (classified != null)
+            classified.put(classFile.getName(), annotation);
+          return retain(name, bytes, classFile.getName());
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      log.warn("Ignoring invalid class-file " + name + ": " + e.getMessage());
+    }
+    return null;
+  }
+
+  private String retain(String location, byte[] bytes, String name)
+  {
+    if (retained != null)
+      retained.put(location, bytes);
+    return name;
+  }
+
+  private static void add(Set<String> classes, String name)
+  {
+    if (name != null)
+      classes.add(name);
+  }
+
+
+  /**
+   * Scans all roots: one sub-task per root.
+   */
+  private class RootsTask extends RecursiveTask<Set<String>>
+  {
+    private final static long serialVersionUID = 1L;
+
+    private final Set<URL> roots;
+
+    RootsTask(Set<URL> roots)
+    {
+      this.roots = roots;
+    }
+
+    @Override
+    protected Set<String> compute()
+    {
+      List<RootTask> tasks = new ArrayList<RootTask>(roots.size());
+      for (URL root : roots)
+        tasks.add(new RootTask(root));
+      return merge(invokeAll(tasks));
+    }
+  }
+
+  /**
+   * Scans a single root.
+   */
+  private class RootTask extends RecursiveTask<Set<String>>
+  {
+    private final static long serialVersionUID = 1L;
+
+    private final URL root;
+
+    RootTask(URL root)
+    {
+      this.root = root;
+    }
+
+    @Override
+    protected Set<String> compute()
+    {
+      try
+      {
+        Set<String> classes;
+        if (cache != null)
+        {
+          classes = cache.get(root);
+          if (classes != null)
+          {
+            cached.incrementAndGet();
+            return classes;
+          }
+        }
+        if (prechecked.contains(root) && !references(root))
+        {
+          skipped.incrementAndGet();
+          log.debug("Skipping " + root + ": no references to javax.persistence");
+          classes = new HashSet<String>();
+        }
+        else
+          classes = scan(root);
+        if (cache != null)
+          cache.put(root, classes);
+        return classes;
+      }
+      catch (IOException e)
+      {
+        throw new ScanException(e);
+      }
+    }
+  }
+
+  /**
+   * Scans the class-files of one directory and forks a sub-task for each
+   * sub-directory.
+   */
+  private class DirectoryTask extends RecursiveTask<Set<String>>
+  {
+    private final static long serialVersionUID = 1L;
+
+    private final File dir;
+    private final String name;
+
+    /**
+     * @param name the name of the package, that corresponds to the directory
+     */
+    DirectoryTask(File dir, String name)
+    {
+      this.dir = dir;
+      this.name = name;
+    }
+
+    @Override
+    protected Set<String> compute()
+    {
+      List<RecursiveTask<Set<String>>> tasks =
+          new ArrayList<RecursiveTask<Set<String>>>();
+      List<File> files = new ArrayList<File>();
+      boolean accepted = filter.accepts(name);
+      File[] children = dir.listFiles();
+      if (children != null)
+      {
+        for (File child : children)
+        {
+          if (child.isDirectory())
+          {
+            String sub =
+                name.length() == 0
+                    ? child.getName()
+                    : name + "." + child.getName();
+            if (!filter.skips(sub))
+              tasks.add(new DirectoryTask(child, sub));
+          }
+          else if (accepted && child.getName().endsWith(".class"))
+            files.add(child);
+        }
+      }
+      for (int i = 0; i < files.size(); i += BATCH)
+        tasks.add(new FilesTask(files.subList(i, Math.min(i + BATCH, files.size()))));
+      return merge(invokeAll(tasks));
+    }
+  }
+
+  /**
+   * Scans a batch of class-files from one directory.
+   */
+  private class FilesTask extends RecursiveTask<Set<String>>
+  {
+    private final static long serialVersionUID = 1L;
+
+    private final List<File> files;
+
+    FilesTask(List<File> files)
+    {
+      this.files = files;
+    }
+
+    @Override
+    protected Set<String> compute()
+    {
+      Set<String> classes = new HashSet<String>();
+      try
+      {
+        for (File file : files)
+          scan(file, classes);
+      }
+      catch (IOException e)
+      {
+        throw new ScanException(e);
+      }
+      return classes;
+    }
+  }
+
+  /**
+   * Pre-checks an archive.
+   *
+   * @return <code>true</code>, if at least one of its classes references
+   *         anything from the package <code>javax.persistence</code>, or if
+   *         the root is not an archive, that can be pre-checked
+   */
+  private boolean references(URL root) throws IOException
+  {
+    if (!"file".equals(root.getProtocol()))
+      return true;
+    File file = toFile(root);
+    if (!file.isFile())
+      return true;
+
+    ZipFile archive = new ZipFile(file);
+    try
+    {
+      Enumeration<? extends ZipEntry> e = archive.entries();
+      while (e.hasMoreElements())
+      {
+        ZipEntry entry = e.nextElement();
+        String name = entry.getName();
+        if (entry.isDirectory()
+            || !name.endsWith(".class")
+            || !filter.acceptsPath(name))
+          continue;
+        InputStream is = archive.getInputStream(entry);
+        try
+        {
+          if (ClassFile.references(is, PERSISTENCE))
+            return true;
+        }
+        finally
+        {
+          is.close();
+        }
+      }
+      return false;
+    }
+    finally
+    {
+      archive.close();
+    }
+  }
+
+  /**
+   * Opens an archive and splits its class-files into batches.
+   */
+  private class ArchiveTask extends RecursiveTask<Set<String>>
+  {
+    private final static long serialVersionUID = 1L;
+
+    private final File file;
+    private final String prefix;
+
+    ArchiveTask(File file, String prefix)
+    {
+      this.file = file;
+      this.prefix = prefix;
+    }
+
+    @Override
+    protected Set<String> compute()
+    {
+      try
+      {
+        ZipFile archive = new ZipFile(file);
+        try
+        {
+          ZipEntry index = archive.getEntry(prefix + EntityIndex.LOCATION);
+          if (index != null)
+          {
+            Set<String> classes = readEntityIndex(archive, index);
+            if (classes != null)
+              return classes;
+          }
+          index = archive.getEntry(prefix + JANDEX_INDEX);
+          if (index != null)
+          {
+            Set<String> classes = readJandexIndex(archive, index);
+            if (classes != null)
+              return classes;
+          }
+
+          List<ZipEntry> entries = new ArrayList<ZipEntry>();
+          Enumeration<? extends ZipEntry> e = archive.entries();
+          while (e.hasMoreElements())
+          {
+            ZipEntry entry = e.nextElement();
+            String name = entry.getName();
+            if (!entry.isDirectory()
+                && name.startsWith(prefix)
+                && name.endsWith(".class")
+                && filter.acceptsPath(name.substring(prefix.length())))
+              entries.add(entry);
+          }
+          List<EntriesTask> tasks = new ArrayList<EntriesTask>();
+          for (int i = 0; i < entries.size(); i += BATCH)
+          {
+            int end = Math.min(i + BATCH, entries.size());
+            tasks.add(new EntriesTask(archive, entries.subList(i, end)));
+          }
+          return merge(invokeAll(tasks));
+        }
+        finally
+        {
+          archive.close();
+        }
+      }
+      catch (IOException e)
+      {
+        throw new ScanException(e);
+      }
+    }
+  }
+
+  /**
+   * Looks up the annotated classes in an index written by the goal
+   * <code>index</code>.
+   *
+   * @return the annotated classes, or <code>null</code>, if the index
+   *         cannot be read
+   */
+  private Set<String> readEntityIndex(ZipFile archive, ZipEntry entry)
+  {
+    EntityIndex index;
+    try
+    {
+      InputStream is = archive.getInputStream(entry);
+      try
+      {
+        index = EntityIndex.read(is);
+      }
+      finally
+      {
+        is.close();
+      }
+    }
+    catch (IOException e)
+    {
+      log.debug(
+          "Cannot read " + entry.getName() + " from " + archive.getName() +
+          ", scanning the archive: " + e
+          );
+      return null;
+    }
+
+    indexed.incrementAndGet();
+    log.debug("Using index of " + archive.getName());
+    Set<String> classes = new HashSet<String>();
+    for (String name : index.getClasses())
+    {
+      if (filter.acceptsClass(name))
+      {
+        log.debug("Found annotated class " + name);
+        classes.add(name);
+      }
+    }
+    for (String name : index.getPackages())
+    {
+      if (filter.accepts(name))
+      {
+        log.debug("Found annotated package " + name);
+        classes.add(name + "." + PACKAGE_INFO);
+      }
+    }
+    return classes;
+  }
+
+  /**
+   * Looks up the annotated classes in a Jandex-index.
+   *
+   * @return the annotated classes, or <code>null</code>, if the index
+   *         cannot be read
+   */
+  private Set<String> readJandexIndex(ZipFile archive, ZipEntry entry)
+  {
+    Index index;
+    InputStream is = null;
+    try
+    {
+      is = archive.getInputStream(entry);
+      index = new IndexReader(is).read();
+    }
+    catch (Exception e)
+    {
+      log.debug(
+          "Cannot read " + entry.getName() + " from " + archive.getName() +
+          ", scanning the archive: " + e
+          );
+      return null;
+    }
+    finally
+    {
+      try
+      {
+        if (is != null)
+          is.close();
+      }
+      catch (IOException e) {}
+    }
+
+    indexed.incrementAndGet();
+    log.debug("Using Jandex-index of " + archive.getName());
+    Set<String> classes = new HashSet<String>();
+    for (String annotation : ANNOTATIONS)
+    {
+      for (AnnotationInstance instance : index.getAnnotations(DotName.createSimple(annotation)))
+      {
+        AnnotationTarget target = instance.target();
+        if (target != null && target.kind() == AnnotationTarget.Kind.CLASS)
+        {
+          String name = target.asClass().name().toString();
+          if (!filter.acceptsClass(name))
+            continue;
+          log.debug("Found annotated class " + name);
+          classes.add(name);
+        }
+      }
+    }
+    for (ClassInfo info : index.getKnownClasses())
+    {
+      String name = info.name().toString();
+      if (!isPackageInfo(name) || !filter.acceptsClass(name))
+        continue;
+      for (List<AnnotationInstance> instances : info.annotations().values())
+      {
+        for (AnnotationInstance instance : instances)
+        {
+          AnnotationTarget target = instance.target();
+          if (target != null && target.kind() == AnnotationTarget.Kind.CLASS)
+            classes.add(name);
+        }
+      }
+      if (classes.contains(name))
+        log.debug("Found annotated package " + packageOf(name));
+    }
+    return classes;
+  }
+
+  /**
+   * Scans a batch of entries from an opened archive.
+   */
+  private class EntriesTask extends RecursiveTask<Set<String>>
+  {
+    private final static long serialVersionUID = 1L;
+
+    private final ZipFile archive;
+    private final List<ZipEntry> entries;
+
+    EntriesTask(ZipFile archive, List<ZipEntry> entries)
+    {
+      this.archive = archive;
+      this.entries = entries;
+    }
+
+    @Override
+    protected Set<String> compute()
+    {
+      Set<String> classes = new HashSet<String>();
+      try
+      {
+        for (ZipEntry entry : entries)
+          scan(archive, entry, classes);
+      }
+      catch (IOException e)
+      {
+        throw new ScanException(e);
+      }
+      return classes;
+    }
+  }
+
+  /**
+   * Transports an {@link IOException} out of a fork/join-task.
+   */
+  private static class ScanException extends RuntimeException
+  {
+    private final static long serialVersionUID = 1L;
+
+    ScanException(IOException cause)
+    {
+      super(cause);
+    }
+
+    @Override
+    public IOException getCause()
+    {
+      return (IOException)super.getCause();
+    }
+  }
+
+
+  private static <T extends RecursiveTask<Set<String>>> Set<String> merge(
+      Iterable<T> tasks
+      )
+  {
+    Set<String> classes = new HashSet<String>();
+    for (T task : tasks)
+      classes.addAll(task.join());
+    return classes;
+  }
+
+
+  /**
+   * @return <code>true</code>, if the given name, that was returned by the
+   *         scan, denotes an annotated package instead of an annotated class
+   */
+  static boolean isPackageInfo(String name)
+  {
+    return name.equals(PACKAGE_INFO) || name.endsWith("." + PACKAGE_INFO);
+  }
+
+  /**
+   * @return the name of the package of the given class
+   */
+  static String packageOf(String name)
+  {
+    int i = name.lastIndexOf('.');
+    return i < 0 ? "" : name.substring(0, i);
+  }
+
+
+  static byte[] read(InputStream is, int size) throws IOException
+  {
+    byte[] buffer = new byte[size > 0 ? size : 1024 * 4];
+    int length = 0;
+    int i;
+    while ((i = is.read(buffer, length, buffer.length - length)) > -1)
+    {
+      length += i;
+      if (length == buffer.length)
+      {
+        if (size > 0)
+        {
+          /** Size is known: check for unexpected trailing data */
+          int b = is.read();
+          if (b == -1)
+            return buffer;
+          size = -1;
+          byte[] grown = new byte[buffer.length * 2];
+          System.arraycopy(buffer, 0, grown, 0, length);
+          grown[length++] = (byte)b;
+          buffer = grown;
+        }
+        else
+        {
+          byte[] grown = new byte[buffer.length * 2];
+          System.arraycopy(buffer, 0, grown, 0, length);
+          buffer = grown;
+        }
+      }
+    }
+    if (length == buffer.length)
+      return buffer;
+    byte[] result = new byte[length];
+    System.arraycopy(buffer, 0, result, 0, length);
+    return result;
+  }
+
+  static File toFile(URL url) throws IOException
+  {
+    try
+    {
+      return new File(url.toURI());
+    }
+    catch (URISyntaxException e)
+    {
+      return new File(url.getPath());
+    }
+    catch (IllegalArgumentException e)
+    {
+      return new File(url.getPath());
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import javax.persistence.MappedSuperclass;
+
+
+
+/**
+ * Index of the annotated classes and packages of an artifact.
+ * <p>
+ * The index is written by the goal <code>index</code> into the
+ * classes-directory of a module and, hence, ends up in its artifact.
+ * If such an artifact is scanned as a dependency, the annotated classes are
+ * taken from the index instead of scanning the archive.
+ * <p>
+ * The index is a simple UTF-8 encoded text-file: a header-line with the
+ * version of the format, followed by one line for each annotated class or
+ * package, that consists of the kind and the name.
+ */
+class EntityIndex
+{
+  final static String LOCATION = "META-INF/hibernate-maven-plugin.idx";
+
+  private final static String HEADER = "hibernate-maven-plugin-index";
+  private final static int VERSION = 1;
+
+  private final static String PACKAGE = "package";
+
+  private final static Map<String, String> KINDS =
+      new TreeMap<String, String>();
+
+  static
+  {
+    KINDS.put(Entity.class.getName(), "entity");
+    KINDS.put(MappedSuperclass.class.getName(), "mapped-superclass");
+    KINDS.put(Embeddable.class.getName(), "embeddable");
+  }
+
+
+  private final Map<String, Set<String>> classes =
+      new TreeMap<String, Set<String>>();
+  private final Set<String> packages = new TreeSet<String>();
+
+
+  /**
+   * @param annotation the fully qualified name of the annotation
+   * @param name the fully qualified name of the annotated class
+   */
+  void addClass(String annotation, String name)
+  {
+    String kind = KINDS.get(annotation);
+    if (kind == null)
+      throw new IllegalArgumentException("Unknown annotation: " + annotation);
+    add(kind, name);
+  }
+
+  private void add(String kind, String name)
+  {
+    Set<String> names = classes.get(kind);
+    if (names == null)
+    {
+      names = new TreeSet<String>();
+      classes.put(kind, names);
+    }
+    names.add(name);
+  }
+
+  void addPackage(String name)
+  {
+    packages.add(name);
+  }
+
+
+  /**
+   * @return the names of all annotated classes, regardless of their kind
+   */
+  Set<String> getClasses()
+  {
+    Set<String> names = new HashSet<String>();
+    for (Set<String> kind : classes.values())
+      names.addAll(kind);
+    return names;
+  }
+
+  Set<String> getPackages()
+  {
+    return Collections.unmodifiableSet(packages);
+  }
+
+
+  void write(OutputStream os) throws IOException
+  {
+    Writer writer = new OutputStreamWriter(os, ClassFile.UTF8);
+    writer.write(HEADER + " " + VERSION + "\n");
+    for (Entry<String, Set<String>> entry : classes.entrySet())
+      for (String name : entry.getValue())
+        writer.write(entry.getKey() + " " + name + "\n");
+    for (String name : packages)
+      writer.write(PACKAGE + " " + name + "\n");
+    writer.flush();
+  }
+
+  static EntityIndex read(InputStream is) throws IOException
+  {
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(is, ClassFile.UTF8));
+    String line = reader.readLine();
+    if (line == null || !line.equals(HEADER + " " + VERSION))
+      throw new IOException("Unknown format: " + line);
+
+    EntityIndex index = new EntityIndex();
+    while ((line = reader.readLine()) != null)
+    {
+      if (line.length() == 0)
+        continue;
+      int i = line.indexOf(' ');
+      if (i < 0)
+        throw new IOException("Invalid line: " + line);
+      String kind = line.substring(0, i);
+      String name = line.substring(i + 1);
+      if (kind.equals(PACKAGE))
+      {
+        index.addPackage(name);
+        continue;
+      }
+      if (!KINDS.containsValue(kind))
+        throw new IOException("Unknown kind: " + kind);
+      index.add(kind, name);
+    }
+    return index;
+  }
+}
@@ -0,0 +1,354 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+
+/**
+ * Algorithm for the fingerprints, that are calculated by the
+ * {@link ModificationTracker}.
+ * <p>
+ * Implementations are thread-safe: all state is kept in a {@link Hasher},
+ * that is created for each calculation. Hence, many resources can be
+ * hashed in parallel. A hasher can also be used to calculate a fingerprint
+ * incrementally, while the data is written.
+ * <p>
+ * Files are streamed through a small buffer. They are not memory-mapped,
+ * because a mapped file cannot be truncated or rewritten on some platforms
+ * (e.g. the output-script on Windows), until the mapping is
+ * garbage-collected.
+ */
+abstract class Fingerprint
+{
+  final static String MD5 = "md5";
+  final static String XXHASH64 = "xxhash64";
+
+  /** Size of the chunks, that are read or copied out of direct buffers */
+  private final static int CHUNK = 1024 * 8;
+
+
+  /**
+   * @param algorithm the name of the algorithm: <code>md5</code> or
+   *                  <code>xxhash64</code> (defaults to <code>md5</code>)
+   * @throws NoSuchAlgorithmException if the algorithm is unknown
+   */
+  static Fingerprint forName(String algorithm) throws NoSuchAlgorithmException
+  {
+    if (algorithm == null || algorithm.equalsIgnoreCase(MD5))
+      return new MD5();
+    if (algorithm.equalsIgnoreCase(XXHASH64))
+      return new XXHash64();
+    throw new NoSuchAlgorithmException("Unknown fingerprint-algorithm: " + algorithm);
+  }
+
+
+  /**
+   * @return the name of the algorithm
+   */
+  abstract String getName();
+
+  /**
+   * @return a new hasher, that calculates a fingerprint incrementally
+   */
+  abstract Hasher hasher();
+
+  /**
+   * Calculates the fingerprint of the remaining bytes of the buffer.
+   *
+   * @return the fingerprint as hex-string
+   */
+  String calculate(ByteBuffer buffer)
+  {
+    Hasher hasher = hasher();
+    if (buffer.hasArray())
+    {
+      hasher.update(
+          buffer.array(),
+          buffer.arrayOffset() + buffer.position(),
+          buffer.remaining()
+          );
+      buffer.position(buffer.limit());
+    }
+    else
+    {
+      byte[] chunk = new byte[Math.min(buffer.remaining(), CHUNK)];
+      while (buffer.hasRemaining())
+      {
+        int length = Math.min(chunk.length, buffer.remaining());
+        buffer.get(chunk, 0, length);
+        hasher.update(chunk, 0, length);
+      }
+    }
+    return hasher.digest();
+  }
+
+  String calculate(File file) throws IOException
+  {
+    return calculate(new FileInputStream(file));
+  }
+
+  /**
+   * Calculates the fingerprint of the stream and closes it.
+   */
+  String calculate(InputStream is) throws IOException
+  {
+    try
+    {
+      Hasher hasher = hasher();
+      byte[] chunk = new byte[CHUNK];
+      int length;
+      while ((length = is.read(chunk)) > -1)
+        hasher.update(chunk, 0, length);
+      return hasher.digest();
+    }
+    finally
+    {
+      is.close();
+    }
+  }
+
+
+  /**
+   * Calculates a fingerprint incrementally.
+   * <p>
+   * A hasher is not thread-safe and can only be used once.
+   */
+  static abstract class Hasher
+  {
+    abstract void update(byte[] bytes, int offset, int length);
+
+    /**
+     * @return the fingerprint of all bytes, that were passed in, as
+     *         hex-string
+     */
+    abstract String digest();
+  }
+
+
+  private static String hex(byte[] bytes)
+  {
+    BigInteger bi = new BigInteger(1, bytes);
+    return String.format("%0" + (bytes.length << 1) + "x", bi);
+  }
+
+
+  /**
+   * MD5: the algorithm, that was used by former versions of the plugin.
+   */
+  private static class MD5 extends Fingerprint
+  {
+    MD5() throws NoSuchAlgorithmException
+    {
+      /** Fail early, if MD5 is not available */
+      MessageDigest.getInstance("MD5");
+    }
+
+
+    @Override
+    String getName()
+    {
+      return MD5;
+    }
+
+    @Override
+    Hasher hasher()
+    {
+      final MessageDigest digest;
+      try
+      {
+        digest = MessageDigest.getInstance("MD5");
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+        throw new IllegalStateException("Digest-Algorithm MD5 is missing!", e);
+      }
+      return new Hasher()
+      {
+        @Override
+        void update(byte[] bytes, int offset, int length)
+        {
+          digest.update(bytes, offset, length);
+        }
+
+        @Override
+        String digest()
+        {
+          return hex(digest.digest());
+        }
+      };
+    }
+  }
+
+  /**
+   * xxHash64: a fast non-cryptographic hash (see
+   * <a href="https://github.com/Cyan4973/xxHash">xxHash</a>).
+   */
+  private static class XXHash64 extends Fingerprint
+  {
+    private final static long PRIME1 = 0x9E3779B185EBCA87L;
+    private final static long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private final static long PRIME3 = 0x165667B19E3779F9L;
+    private final static long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private final static long PRIME5 = 0x27D4EB2F165667C5L;
+
+
+    @Override
+    String getName()
+    {
+      return XXHASH64;
+    }
+
+    @Override
+    Hasher hasher()
+    {
+      return new XXHasher();
+    }
+
+
+    private static class XXHasher extends Hasher
+    {
+      private long v1 = PRIME1 + PRIME2;
+      private long v2 = PRIME2;
+      private long v3 = 0;
+      private long v4 = -PRIME1;
+      private long total = 0;
+      private final byte[] buffer = new byte[32];
+      private int size = 0;
+
+
+      @Override
+      void update(byte[] bytes, int offset, int length)
+      {
+        total += length;
+        if (size + length < 32)
+        {
+          System.arraycopy(bytes, offset, buffer, size, length);
+          size += length;
+          return;
+        }
+        if (size > 0)
+        {
+          int fill = 32 - size;
+          System.arraycopy(bytes, offset, buffer, size, fill);
+          stripe(buffer, 0);
+          offset += fill;
+          length -= fill;
+          size = 0;
+        }
+        while (length >= 32)
+        {
+          stripe(bytes, offset);
+          offset += 32;
+          length -= 32;
+        }
+        System.arraycopy(bytes, offset, buffer, 0, length);
+        size = length;
+      }
+
+      private void stripe(byte[] bytes, int p)
+      {
+        v1 = round(v1, u8(bytes, p));
+        v2 = round(v2, u8(bytes, p + 8));
+        v3 = round(v3, u8(bytes, p + 16));
+        v4 = round(v4, u8(bytes, p + 24));
+      }
+
+      @Override
+      String digest()
+      {
+        long h;
+        if (total >= 32)
+        {
+          h =
+              Long.rotateLeft(v1, 1) +
+              Long.rotateLeft(v2, 7) +
+              Long.rotateLeft(v3, 12) +
+              Long.rotateLeft(v4, 18);
+          h = merge(h, v1);
+          h = merge(h, v2);
+          h = merge(h, v3);
+          h = merge(h, v4);
+        }
+        else
+        {
+          h = PRIME5;
+        }
+
+        h += total;
+
+        int p = 0;
+        while (p + 8 <= size)
+        {
+          h ^= round(0, u8(buffer, p));
+          h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+          p += 8;
+        }
+        if (p + 4 <= size)
+        {
+          h ^= (u4(buffer, p) & 0xFFFFFFFFL) * PRIME1;
+          h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+          p += 4;
+        }
+        while (p < size)
+        {
+          h ^= (buffer[p] & 0xFF) * PRIME5;
+          h = Long.rotateLeft(h, 11) * PRIME1;
+          p++;
+        }
+
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+
+        return String.format("%016x", h);
+      }
+    }
+
+    private static long round(long acc, long input)
+    {
+      acc += input * PRIME2;
+      acc = Long.rotateLeft(acc, 31);
+      return acc * PRIME1;
+    }
+
+    private static long merge(long acc, long value)
+    {
+      acc ^= round(0, value);
+      return acc * PRIME1 + PRIME4;
+    }
+
+    /** Reads a little-endian long */
+    private static long u8(byte[] bytes, int p)
+    {
+      return
+          (bytes[p] & 0xFFL) |
+          (bytes[p + 1] & 0xFFL) << 8 |
+          (bytes[p + 2] & 0xFFL) << 16 |
+          (bytes[p + 3] & 0xFFL) << 24 |
+          (bytes[p + 4] & 0xFFL) << 32 |
+          (bytes[p + 5] & 0xFFL) << 40 |
+          (bytes[p + 6] & 0xFFL) << 48 |
+          (bytes[p + 7] & 0xFFL) << 56;
+    }
+
+    /** Reads a little-endian int */
+    private static int u4(byte[] bytes, int p)
+    {
+      return
+          (bytes[p] & 0xFF) |
+          (bytes[p + 1] & 0xFF) << 8 |
+          (bytes[p + 2] & 0xFF) << 16 |
+          (bytes[p + 3] & 0xFF) << 24;
+    }
+  }
+}
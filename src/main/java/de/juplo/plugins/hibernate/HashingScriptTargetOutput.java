@@ -0,0 +1,152 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import org.hibernate.tool.schema.spi.CommandAcceptanceException;
+import org.hibernate.tool.schema.spi.SchemaManagementException;
+import org.hibernate.tool.schema.spi.ScriptTargetOutput;
+
+
+
+/**
+ * Writes the generated script to a file and calculates its fingerprint
+ * on the fly.
+ * <p>
+ * The commands are written exactly like Hibernate's
+ * <code>ScriptTargetOutputToFile</code> does: appended to the file, each
+ * followed by the line-separator of the platform. Every byte, that ends up
+ * in the file, is also fed into a {@link Fingerprint.Hasher}. Because the
+ * file is truncated before the script is generated, the resulting
+ * fingerprint equals the fingerprint of the whole file and the file does
+ * not have to be read again afterwards.
+ */
+class HashingScriptTargetOutput implements ScriptTargetOutput
+{
+  private final static String NEWLINE;
+
+  static
+  {
+    String separator = System.getProperty("line.separator");
+    NEWLINE = separator == null || separator.isEmpty() ? "\n" : separator;
+  }
+
+
+  private final File file;
+  private final String charset;
+  private final Fingerprint.Hasher hasher;
+
+  private Writer writer;
+  private boolean written = false;
+  private String fingerprint;
+
+
+  /**
+   * @param charset the charset for the script, or <code>null</code> for
+   *                the default charset of the platform
+   */
+  HashingScriptTargetOutput(File file, String charset, Fingerprint.Hasher hasher)
+  {
+    this.file = file;
+    this.charset = charset;
+    this.hasher = hasher;
+  }
+
+
+  @Override
+  public void prepare()
+  {
+    if (fingerprint != null)
+      throw new SchemaManagementException("Script was already fingerprinted: " + file);
+    try
+    {
+      if (!file.exists())
+      {
+        File parent = file.getParentFile();
+        if (parent != null)
+          parent.mkdirs();
+      }
+      OutputStream os =
+          new FilterOutputStream(new FileOutputStream(file, true))
+          {
+            @Override
+            public void write(int b) throws IOException
+            {
+              out.write(b);
+              hasher.update(new byte[] { (byte)b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+              out.write(b, off, len);
+              hasher.update(b, off, len);
+            }
+          };
+      writer =
+          charset == null
+              ? new OutputStreamWriter(os)
+              : new OutputStreamWriter(os, charset);
+      written = true;
+    }
+    catch (IOException e)
+    {
+      throw new SchemaManagementException("Unable to open script file " + file + ": " + e, e);
+    }
+  }
+
+  @Override
+  public void accept(String command)
+  {
+    if (writer == null)
+      throw new SchemaManagementException("Illegal state : writer null - not prepared");
+    try
+    {
+      writer.write(command);
+      writer.write(NEWLINE);
+      writer.flush();
+    }
+    catch (IOException e)
+    {
+      throw new CommandAcceptanceException("Could not write to target script file", e);
+    }
+  }
+
+  @Override
+  public void release()
+  {
+    if (writer == null)
+      return;
+    try
+    {
+      writer.close();
+    }
+    catch (IOException e)
+    {
+      throw new SchemaManagementException("Unable to close file writer : " + e);
+    }
+    finally
+    {
+      writer = null;
+    }
+  }
+
+
+  /**
+   * @return the fingerprint of the written script, or <code>null</code>, if
+   *         nothing was written through this output
+   */
+  String getFingerprint()
+  {
+    if (!written || writer != null)
+      return null;
+    if (fingerprint == null)
+      fingerprint = hasher.digest();
+    return fingerprint;
+  }
+}
@@ -0,0 +1,197 @@
+package de.juplo.plugins.hibernate;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+
+/**
+ * Write an index of the annotated classes and packages of the module into
+ * its classes-directory.
+ * <p>
+ * The index ends up in the artifact of the module. If the artifact is
+ * scanned as a dependency by the goals <code>create</code>,
+ * <code>update</code> or <code>drop</code> of another module, the
+ * annotated classes are taken from the index and the archive is not
+ * scanned.
+ *
+ * @goal index
+ * @phase process-classes
+ * @threadSafe
+ */
+public class IndexMojo extends AbstractMojo
+{
+  /**
+   * Classes-Directory to index.
+   * <p>
+   * The index is written to <code>META-INF/hibernate-maven-plugin.idx</code>
+   * relative to this directory.
+   *
+   * @parameter property="project.build.outputDirectory"
+   * @required
+   * @since 2.1
+   */
+  private String outputDirectory;
+
+  /**
+   * Scan in parallel.
+   * <p>
+   * If set to <code>true</code>, the sub-directories of the
+   * classes-directory are scanned in parallel on all available processors.
+   *
+   * @parameter property="hibernate.schema.scan.parallel" default-value="false"
+   * @since 2.1
+   */
+  private boolean scanParallel;
+
+  /**
+   * Skip execution
+   * <p>
+   * If set to <code>true</code>, no index is written.
+   *
+   * @parameter property="hibernate.index.skip" default-value="false"
+   * @since 2.1
+   */
+  private boolean skip;
+
+
+  @Override
+  public void execute()
+    throws
+      MojoFailureException,
+      MojoExecutionException
+  {
+    if (skip)
+    {
+      getLog().info("Execution of hibernate-maven-plugin:index was skipped!");
+      return;
+    }
+
+    File dir = new File(outputDirectory);
+    if (!dir.isDirectory())
+    {
+      getLog().info("No classes to index: " + dir.getAbsolutePath() + " does not exist");
+      return;
+    }
+
+    EntityIndex index = new EntityIndex();
+    try
+    {
+      index(dir, index);
+    }
+    catch (IOException e)
+    {
+      String error = "Error while indexing " + dir.getAbsolutePath() + ": " + e;
+      getLog().error(error);
+      throw new MojoExecutionException(error, e);
+    }
+
+    File file = new File(dir, EntityIndex.LOCATION);
+    try
+    {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      index.write(baos);
+      byte[] bytes = baos.toByteArray();
+      /**
+       * Leave an unchanged index untouched: otherwise, its modification-time
+       * would defeat the up-to-date check of the other goals
+       */
+      if (unchanged(file, bytes))
+      {
+        getLog().info("Index is up to date: " + file.getPath());
+        return;
+      }
+      file.getParentFile().mkdirs();
+      OutputStream os = new FileOutputStream(file);
+      try
+      {
+        os.write(bytes);
+      }
+      finally
+      {
+        os.close();
+      }
+    }
+    catch (IOException e)
+    {
+      String error = "Error while writing " + file.getAbsolutePath() + ": " + e;
+      getLog().error(error);
+      throw new MojoExecutionException(error, e);
+    }
+
+    getLog().info(
+        "Indexed " + index.getClasses().size() + " annotated classes and " +
+        index.getPackages().size() + " annotated packages in " +
+        file.getPath()
+        );
+  }
+
+
+  private static boolean unchanged(File file, byte[] bytes) throws IOException
+  {
+    if (!file.isFile() || file.length() != bytes.length)
+      return false;
+    InputStream is = new FileInputStream(file);
+    try
+    {
+      return Arrays.equals(bytes, ClassScanner.read(is, bytes.length));
+    }
+    finally
+    {
+      is.close();
+    }
+  }
+
+
+  private void index(File dir, EntityIndex index) throws IOException
+  {
+    Map<String, String> annotations = new ConcurrentHashMap<String, String>();
+    ClassScanner scanner =
+        new ClassScanner(
+            getLog(),
+            scanParallel,
+            new PackageFilter(null, null),
+            null,
+            null,
+            Collections.<URL>emptySet()
+            );
+    scanner.classify(annotations);
+    Set<URL> roots = Collections.singleton(dir.toURI().toURL());
+    for (String name : scanner.scan(roots))
+    {
+      if (ClassScanner.isPackageInfo(name))
+        index.addPackage(ClassScanner.packageOf(name));
+      else
+        index.addClass(annotations.get(name), name);
+    }
+  }
+}
@@ -1,21 +1,45 @@
 package de.juplo.plugins.hibernate;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.math.BigInteger;
-import java.security.MessageDigest;
+import java.io.ObjectStreamConstants;
+import java.io.RandomAccessFile;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import org.apache.maven.plugin.logging.Log;
 
 
@@ -26,21 +50,52 @@ import org.apache.maven.plugin.logging.Log;
  */
 public class ModificationTracker
 {
+  /** "HMPF": hibernate-maven-plugin fingerprints */
+  private final static int MAGIC = 0x484D5046;
+  private final static int VERSION = 2;
+
+  private final static Pattern HEX = Pattern.compile("[0-9a-f]+");
+
   private Map<String,String> properties;
   private Map<String,String> classes;
+  private Map<String,String> stats;
+  private String applied;
+  private final Map<String,String> prefetched =
+      new ConcurrentHashMap<String,String>();
+  private Map<String,String> shared =
+      new ConcurrentHashMap<String,String>();
 
   private final Set<String> propertyNames;
   private final Set<String> classNames;
 
   private boolean modified = false;
+  private boolean updated = false;
   private boolean failed = false;
 
   private final File saved;
-  private final MessageDigest digest;
+  private final Fingerprint fingerprint;
+  private final boolean mapping;
+  private final String algorithm;
   private final Log log;
 
+  private FileChannel channel;
+  private FileLock lock;
 
-  ModificationTracker(String buildDirectory, String filename, Log log)
+
+  /**
+   * @param algorithm the algorithm for the fingerprints (see
+   *                  {@link Fingerprint#forName(String)})
+   * @param mapping if <code>true</code>, only the parts of class-files, that
+   *                are relevant for the mapping, are fingerprinted (see
+   *                {@link ClassFile#getMappingSignature()})
+   */
+  ModificationTracker(
+      String buildDirectory,
+      String filename,
+      String algorithm,
+      boolean mapping,
+      Log log
+      )
       throws
         NoSuchAlgorithmException
   {
@@ -57,23 +112,46 @@ public class ModificationTracker
       saved = new File(buildDirectory, output.getPath());
       log.debug("Adjusted relative path, resulting path is " + saved.getPath());
     }
-    digest = java.security.MessageDigest.getInstance("MD5");
+    fingerprint = Fingerprint.forName(algorithm);
+    this.mapping = mapping;
+    this.algorithm = fingerprint.getName() + (mapping ? "+mapping" : "");
     this.log = log;
   }
 
 
-  private String calculate(InputStream is)
+  private String calculate(URL resource)
       throws
         IOException
   {
-    byte[] buffer = new byte[1024*4]; // copy data in 4MB-chunks
-    int i;
-    while((i = is.read(buffer)) > -1)
-      digest.update(buffer, 0, i);
-    is.close();
-    byte[] bytes = digest.digest();
-    BigInteger bi = new BigInteger(1, bytes);
-    return String.format("%0" + (bytes.length << 1) + "x", bi);
+    if (mapping && resource.getPath().endsWith(".class"))
+      return calculate(resource, ClassScanner.read(resource.openStream(), -1));
+    if ("file".equals(resource.getProtocol()))
+    {
+      File file = toFile(resource);
+      if (file.isFile())
+        return fingerprint.calculate(file);
+    }
+    return fingerprint.calculate(resource.openStream());
+  }
+
+  /**
+   * Calculates the fingerprint of the given content of the resource.
+   */
+  private String calculate(URL resource, byte[] bytes)
+  {
+    if (mapping && resource.getPath().endsWith(".class"))
+    {
+      try
+      {
+        byte[] signature = new ClassFile(bytes).getMappingSignature();
+        return fingerprint.calculate(ByteBuffer.wrap(signature));
+      }
+      catch (IOException e)
+      {
+        log.debug("Cannot extract the mapping of " + resource + ": " + e);
+      }
+    }
+    return fingerprint.calculate(ByteBuffer.wrap(bytes));
   }
 
   private boolean check(Map<String,String> values, String name, String value)
@@ -90,13 +168,279 @@ public class ModificationTracker
 
   boolean track(String name, InputStream is) throws IOException
   {
-    boolean result = check(classes, name, calculate(is));
+    return update(name, fingerprint.calculate(is));
+  }
+
+  private boolean update(String name, String hash)
+  {
+    boolean result = check(classes, name, hash);
     classNames.add(name);
     modified |= result;
     return result;
   }
 
 
+  /**
+   * Tracks the resource, that is located by the given URL.
+   * <p>
+   * Together with the fingerprint, the stat-data of the resource is
+   * remembered: size and modification-time of a file, or size and
+   * modification-time of the containing archive plus the size and the CRC
+   * of the entry for a resource, that is located in a jar. The resource is
+   * only read and hashed, if its stat-data has changed. If an archive was
+   * rebuilt, but the size and the CRC of the entry are unchanged, the
+   * resource is not read either.
+   */
+  boolean track(String name, URL resource) throws IOException
+  {
+    String last = stats.get(name);
+    String stat = stat(resource, last);
+    if (classes.containsKey(name) && same(last, stat))
+    {
+      classNames.add(name);
+      if (!stat.equals(last))
+      {
+        stats.put(name, stat);
+        updated = true;
+      }
+      return false;
+    }
+    String hash = prefetched.remove(name);
+    if (hash == null)
+      hash = calculate(name, stat, resource);
+    boolean result = update(name, hash);
+    if (stat == null)
+      stats.remove(name);
+    else
+      stats.put(name, stat);
+    updated = true;
+    return result;
+  }
+
+  /**
+   * Tracks a file, whose fingerprint was already calculated with a
+   * {@link #hasher()}, while the file was written.
+   * <p>
+   * Only the stat-data of the file is looked up. Hence, the next call of
+   * {@link #track(String, URL)} does not have to read the file, as long as
+   * it is not changed.
+   */
+  boolean track(String name, File file, String hash)
+  {
+    boolean result = update(name, hash);
+    stats.put(name, "f:" + file.length() + ":" + file.lastModified());
+    updated = true;
+    return result;
+  }
+
+  /**
+   * @return a new hasher for the configured algorithm
+   */
+  Fingerprint.Hasher hasher()
+  {
+    return fingerprint.hasher();
+  }
+
+  /**
+   * Shares the calculated fingerprints with other trackers.
+   * <p>
+   * The fingerprints are stored in the given map, keyed by the name and the
+   * stat-data of the resource. Fingerprints, that were already calculated
+   * by another tracker for an unchanged resource, are taken from the map.
+   * Hence, all trackers, that share a map, must use the same algorithm.
+   */
+  void share(Map<String,String> fingerprints)
+  {
+    shared = fingerprints;
+  }
+
+  /**
+   * Looks up the fingerprint in the shared fingerprints, or calculates it.
+   */
+  private String calculate(String name, String stat, URL resource)
+      throws
+        IOException
+  {
+    return calculate(name, stat, resource, null);
+  }
+
+  /**
+   * @param bytes the content of the resource, or <code>null</code>, if the
+   *              resource has to be read
+   */
+  private String calculate(
+      String name,
+      String stat,
+      URL resource,
+      byte[] bytes
+      )
+      throws
+        IOException
+  {
+    String key = stat == null ? null : name + "@" + stat;
+    String hash = key == null ? null : shared.get(key);
+    if (hash == null)
+    {
+      hash = bytes == null ? calculate(resource) : calculate(resource, bytes);
+      if (key != null)
+        shared.put(key, hash);
+    }
+    return hash;
+  }
+
+  /**
+   * Calculates the fingerprints of the given resources in parallel.
+   * <p>
+   * Only resources, whose stat-data has changed, are hashed. The calculated
+   * fingerprints are picked up by subsequent calls of
+   * {@link #track(String, URL)}.
+   *
+   * @param resources the resources to hash, mapped by their names
+   * @param contents the contents of resources, that were already read,
+   *                 mapped by their names: these are hashed without
+   *                 reading the resource again
+   * @param threads the number of threads to use
+   */
+  void prefetch(
+      Map<String, URL> resources,
+      Map<String, byte[]> contents,
+      int threads
+      )
+      throws
+        IOException
+  {
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (Map.Entry<String, URL> resource : resources.entrySet())
+    {
+      final String name = resource.getKey();
+      final URL url = resource.getValue();
+      String last = stats.get(name);
+      final String stat = stat(url, last);
+      if (classes.containsKey(name) && same(last, stat))
+        continue;
+      final byte[] bytes = contents.get(name);
+      if (stat != null && shared.containsKey(name + "@" + stat))
+      {
+        prefetched.put(name, shared.get(name + "@" + stat));
+        continue;
+      }
+      tasks.add(new Callable<Void>()
+      {
+        @Override
+        public Void call() throws IOException
+        {
+          prefetched.put(name, calculate(name, stat, url, bytes));
+          return null;
+        }
+      });
+    }
+    if (tasks.isEmpty())
+      return;
+
+    long start = System.currentTimeMillis();
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+    try
+    {
+      for (Future<Void> future : pool.invokeAll(tasks))
+        future.get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while calculating fingerprints", e);
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof IOException)
+        throw (IOException)e.getCause();
+      throw new IOException("Error while calculating fingerprints", e.getCause());
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+    log.debug(
+        "Calculated " + prefetched.size() + " fingerprints with " + threads +
+        " thread(s) in " + (System.currentTimeMillis() - start) + " ms"
+        );
+  }
+
+  /**
+   * @return the stat-data of the resource, or <code>null</code>, if the
+   *         stat-data of the resource cannot be determined
+   */
+  private String stat(URL resource, String last) throws IOException
+  {
+    if ("file".equals(resource.getProtocol()))
+    {
+      File file = toFile(resource);
+      if (!file.isFile())
+        return null;
+      return "f:" + file.length() + ":" + file.lastModified();
+    }
+
+    if ("jar".equals(resource.getProtocol()))
+    {
+      JarURLConnection connection =
+          (JarURLConnection)resource.openConnection();
+      URL url = connection.getJarFileURL();
+      if (!"file".equals(url.getProtocol()))
+        return null;
+      File jar = toFile(url);
+      if (!jar.isFile())
+        return null;
+      String stat = "j:" + jar.length() + ":" + jar.lastModified() + ":";
+      if (last != null && last.startsWith(stat))
+        /** Archive unchanged: no need to look up the entry */
+        return last;
+      ZipFile archive = new ZipFile(jar);
+      try
+      {
+        ZipEntry entry = archive.getEntry(connection.getEntryName());
+        if (entry == null || entry.getCrc() == -1)
+          return null;
+        return stat + entry.getSize() + "-" + Long.toHexString(entry.getCrc());
+      }
+      finally
+      {
+        archive.close();
+      }
+    }
+
+    return null;
+  }
+
+  private static boolean same(String last, String stat)
+  {
+    if (last == null || stat == null)
+      return false;
+    if (last.equals(stat))
+      return true;
+    /** Rebuilt archive: compare size and CRC of the entry */
+    return
+        last.startsWith("j:") &&
+        stat.startsWith("j:") &&
+        last.substring(last.lastIndexOf(':'))
+            .equals(stat.substring(stat.lastIndexOf(':')));
+  }
+
+  private static File toFile(URL url)
+  {
+    try
+    {
+      return new File(url.toURI());
+    }
+    catch (URISyntaxException e)
+    {
+      return new File(url.getPath());
+    }
+    catch (IllegalArgumentException e)
+    {
+      return new File(url.getPath());
+    }
+  }
+
+
   boolean check(String name, String property)
   {
     propertyNames.add(name);
@@ -119,6 +463,38 @@ public class ModificationTracker
   }
 
 
+  /**
+   * Calculates the fingerprint of the given file with the configured
+   * algorithm.
+   */
+  String fingerprint(File file) throws IOException
+  {
+    return fingerprint.calculate(file);
+  }
+
+  /**
+   * @return the fingerprint of the last script, that was applied to the
+   *         database, or <code>null</code>, if unknown
+   */
+  String getApplied()
+  {
+    return applied;
+  }
+
+  /**
+   * Remembers the fingerprint of the script, that was applied to the
+   * database.
+   *
+   * @param applied the fingerprint or <code>null</code>, if the script was
+   *                not applied to the database
+   */
+  void setApplied(String applied)
+  {
+    this.applied = applied;
+    updated = true;
+  }
+
+
   void touch()
   {
     modified = true;
@@ -137,6 +513,7 @@ public class ModificationTracker
       {
         modified = true;
         classes.remove(clazz);
+        stats.remove(clazz);
       }
     return modified;
   }
@@ -148,29 +525,62 @@ public class ModificationTracker
   }
 
 
+  /**
+   * Loads the fingerprints of the last run.
+   * <p>
+   * The store is locked until {@link #save()} is called. Hence, concurrent
+   * builds on the same workspace wait for each other, instead of reading a
+   * half-written store or overwriting each others results.
+   */
   void load()
   {
+    properties = new HashMap<String,String>();
+    classes = new HashMap<String,String>();
+    stats = new HashMap<String,String>();
+
+    lock();
+
     if (saved.isFile() && saved.length() > 0)
     {
       try
       {
-        FileInputStream fis = new FileInputStream(saved);
-        ObjectInputStream ois = new ObjectInputStream(fis);
-        properties = (HashMap<String,String>)ois.readObject();
-        classes = (HashMap<String,String>)ois.readObject();
-        ois.close();
+        DataInputStream dis =
+            new DataInputStream(
+                new BufferedInputStream(new FileInputStream(saved)));
+        try
+        {
+          dis.mark(4);
+          int magic = dis.readInt();
+          if (magic == MAGIC)
+          {
+            read(dis);
+          }
+          else if ((magic >>> 16) == (ObjectStreamConstants.STREAM_MAGIC & 0xffff))
+          {
+            /** Written by an older version with Java-serialization */
+            dis.reset();
+            readLegacy(dis);
+          }
+          else
+          {
+            throw new IOException("unknown format");
+          }
+        }
+        finally
+        {
+          dis.close();
+        }
       }
       catch (Exception e)
       {
         properties = new HashMap<String,String>();
         classes = new HashMap<String,String>();
-        log.warn("Cannot read md5s from saved: " + e);
+        stats = new HashMap<String,String>();
+        log.warn("Cannot read fingerprints from " + saved.getPath() + ": " + e);
       }
     }
     else
     {
-      properties = new HashMap<String,String>();
-      classes = new HashMap<String,String>();
       try
       {
         saved.createNewFile();
@@ -182,30 +592,313 @@ public class ModificationTracker
     }
   }
 
+  /**
+   * Writes the fingerprints and releases the lock on the store.
+   * <p>
+   * The fingerprints are written to a temporary file, that replaces the
+   * store by an atomic rename. Hence, a crash never leaves a half-written
+   * store behind.
+   */
   void save()
   {
-    if (failed)
+    try
     {
-      saved.delete();
-      return;
+      if (failed)
+      {
+        saved.delete();
+        return;
+      }
+
+      if (!modified && !updated)
+        return;
+
+      /** Write fingerprints for annotated classes to file */
+      File tmp = null;
+      try
+      {
+        File dir = saved.getAbsoluteFile().getParentFile();
+        tmp = File.createTempFile(saved.getName(), ".tmp", dir);
+        DataOutputStream dos =
+            new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try
+        {
+          write(dos);
+        }
+        finally
+        {
+          dos.close();
+        }
+        try
+        {
+          Files.move(
+              tmp.toPath(),
+              saved.toPath(),
+              StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE
+              );
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+          Files.move(
+              tmp.toPath(),
+              saved.toPath(),
+              StandardCopyOption.REPLACE_EXISTING
+              );
+        }
+        tmp = null;
+      }
+      catch (Exception e)
+      {
+        log.error("Cannot write fingerprints to file: " + e);
+      }
+      finally
+      {
+        if (tmp != null)
+          tmp.delete();
+      }
     }
+    finally
+    {
+      unlock();
+    }
+  }
 
-    if (!modified)
-      return;
 
-    /** Write md5-sums for annotated classes to file */
+  /**
+   * Binary format of the store:
+   * <ul>
+   * <li>Header: magic number, format-version and fingerprint-algorithm</li>
+   * <li>Configuration-values: count, followed by name/value-pairs</li>
+   * <li>
+   * Prefix-table: count, followed by the distinct prefixes (the package of
+   * a class) of all names of tracked resources
+   * </li>
+   * <li>
+   * Tracked resources: count, followed by the index of the prefix, the
+   * remainder of the name, the raw bytes of the fingerprint and the
+   * stat-data for each resource
+   * </li>
+   * </ul>
+   */
+  private void write(DataOutputStream dos) throws IOException
+  {
+    dos.writeInt(MAGIC);
+    dos.writeInt(VERSION);
+    dos.writeUTF(algorithm);
+    dos.writeBoolean(applied != null);
+    if (applied != null)
+      dos.writeUTF(applied);
+
+    dos.writeInt(properties.size());
+    for (Map.Entry<String,String> entry : properties.entrySet())
+    {
+      dos.writeUTF(entry.getKey());
+      dos.writeUTF(entry.getValue());
+    }
+
+    Map<String,Integer> prefixes = new LinkedHashMap<String,Integer>();
+    for (String name : classes.keySet())
+    {
+      String prefix = prefix(name);
+      if (!prefixes.containsKey(prefix))
+        prefixes.put(prefix, prefixes.size());
+    }
+    dos.writeInt(prefixes.size());
+    for (String prefix : prefixes.keySet())
+      dos.writeUTF(prefix);
+
+    dos.writeInt(classes.size());
+    for (Map.Entry<String,String> entry : classes.entrySet())
+    {
+      String name = entry.getKey();
+      String prefix = prefix(name);
+      dos.writeInt(prefixes.get(prefix));
+      dos.writeUTF(name.substring(prefix.length()));
+      writeHash(dos, entry.getValue());
+      writeStat(dos, stats.get(name));
+    }
+  }
+
+  private void read(DataInputStream dis) throws IOException
+  {
+    int version = dis.readInt();
+    if (version < 1 || version > VERSION)
+      throw new IOException("unknown version " + version);
+    String last = dis.readUTF();
+    if (version > 1 && dis.readBoolean())
+    {
+      String hash = dis.readUTF();
+      /** Fingerprints of another algorithm are useless */
+      if (last.equals(algorithm))
+        applied = hash;
+    }
+    if (!last.equals(algorithm))
+      log.info(
+          "Fingerprint-algorithm changed from " + last + " to " + algorithm
+          );
+
+    int count = dis.readInt();
+    for (int i = 0; i < count; i++)
+      properties.put(dis.readUTF(), dis.readUTF());
+
+    String[] prefixes = new String[dis.readInt()];
+    for (int i = 0; i < prefixes.length; i++)
+      prefixes[i] = dis.readUTF();
+
+    count = dis.readInt();
+    for (int i = 0; i < count; i++)
+    {
+      String name = prefixes[dis.readInt()] + dis.readUTF();
+      String hash = readHash(dis);
+      /** Fingerprints of another algorithm are useless */
+      if (last.equals(algorithm))
+        classes.put(name, hash);
+      String stat = readStat(dis);
+      if (stat != null)
+        stats.put(name, stat);
+    }
+  }
+
+  private void readLegacy(InputStream is) throws Exception
+  {
+    ObjectInputStream ois = new ObjectInputStream(is);
+    properties = (HashMap<String,String>)ois.readObject();
+    Map<String,String> hashes = (HashMap<String,String>)ois.readObject();
     try
     {
-      FileOutputStream fos = new FileOutputStream(saved);
-      ObjectOutputStream oos = new ObjectOutputStream(fos);
-      oos.writeObject(properties);
-      oos.writeObject(classes);
-      oos.close();
-      fos.close();
+      stats = (HashMap<String,String>)ois.readObject();
     }
     catch (Exception e)
     {
-      log.error("Cannot write md5-sums to file: " + e);
+      /** Written by an older version: no stat-data available */
+      log.debug("No stat-data found in " + saved.getPath());
+    }
+    /** Older versions only knew MD5 */
+    if (algorithm.equals(Fingerprint.MD5))
+      classes = hashes;
+  }
+
+  private static String prefix(String name)
+  {
+    int i = name.lastIndexOf('.');
+    return i < 0 ? "" : name.substring(0, i + 1);
+  }
+
+  private static void writeHash(DataOutputStream dos, String hash)
+      throws
+        IOException
+  {
+    if (hash.length() % 2 == 0 && hash.length() < 512 && HEX.matcher(hash).matches())
+    {
+      dos.writeByte(hash.length() / 2);
+      for (int i = 0; i < hash.length(); i += 2)
+        dos.writeByte(Integer.parseInt(hash.substring(i, i + 2), 16));
+    }
+    else
+    {
+      dos.writeByte(0);
+      dos.writeUTF(hash);
     }
-  }  
+  }
+
+  private static String readHash(DataInputStream dis) throws IOException
+  {
+    int length = dis.readUnsignedByte();
+    if (length == 0)
+      return dis.readUTF();
+    StringBuilder builder = new StringBuilder(length * 2);
+    for (int i = 0; i < length; i++)
+    {
+      int b = dis.readUnsignedByte();
+      builder.append(Character.forDigit(b >>> 4, 16));
+      builder.append(Character.forDigit(b & 0xf, 16));
+    }
+    return builder.toString();
+  }
+
+  private static void writeStat(DataOutputStream dos, String stat)
+      throws
+        IOException
+  {
+    if (stat == null)
+    {
+      dos.writeByte(0);
+      return;
+    }
+    String[] parts = stat.split("[:-]");
+    if (stat.startsWith("f:"))
+    {
+      dos.writeByte('f');
+      dos.writeLong(Long.parseLong(parts[1]));
+      dos.writeLong(Long.parseLong(parts[2]));
+    }
+    else
+    {
+      dos.writeByte('j');
+      dos.writeLong(Long.parseLong(parts[1]));
+      dos.writeLong(Long.parseLong(parts[2]));
+      dos.writeLong(Long.parseLong(parts[3]));
+      dos.writeLong(Long.parseLong(parts[4], 16));
+    }
+  }
+
+  private static String readStat(DataInputStream dis) throws IOException
+  {
+    switch (dis.readUnsignedByte())
+    {
+      case 0:
+        return null;
+      case 'f':
+        return "f:" + dis.readLong() + ":" + dis.readLong();
+      case 'j':
+        return
+            "j:" + dis.readLong() + ":" + dis.readLong() + ":" +
+            dis.readLong() + "-" + Long.toHexString(dis.readLong());
+      default:
+        throw new IOException("invalid stat-data");
+    }
+  }
+
+
+  private void lock()
+  {
+    File file = new File(saved.getPath() + ".lock");
+    try
+    {
+      file.getAbsoluteFile().getParentFile().mkdirs();
+      channel = new RandomAccessFile(file, "rw").getChannel();
+      lock = channel.tryLock();
+      if (lock == null)
+      {
+        log.info("Waiting for the lock on " + saved.getPath());
+        lock = channel.lock();
+      }
+    }
+    catch (OverlappingFileLockException e)
+    {
+      log.warn("Store " + saved.getPath() + " is already locked by this process");
+    }
+    catch (IOException e)
+    {
+      log.warn("Cannot lock " + saved.getPath() + ": " + e);
+    }
+  }
+
+  private void unlock()
+  {
+    try
+    {
+      if (lock != null)
+        lock.release();
+      if (channel != null)
+        channel.close();
+    }
+    catch (IOException e)
+    {
+      log.debug("Cannot release the lock on " + saved.getPath() + ": " + e);
+    }
+    lock = null;
+    channel = null;
+  }
 }
@@ -1,102 +1,588 @@
 package de.juplo.plugins.hibernate;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.URLClassLoader;
-import java.util.Arrays;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.jar.Attributes;
+import java.util.jar.Attributes.Name;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 import org.apache.maven.plugin.logging.Log;
 
 
 /**
+ * Class-loader for the classes and resources of the project.
+ * <p>
+ * URLs can be appended at any time: classes, that were already loaded,
+ * stay valid. Every archive is opened once and its entries are indexed by
+ * their package (the directory of the entry). The same is done for the
+ * sub-directories of a directory. Hence, a class or resource is looked up
+ * directly in the roots, that contain its package, instead of searching
+ * through the whole class-path.
+ * <p>
+ * Like the standard class-loaders, the loader delegates to its parent
+ * first. The archives are kept open until the loader is closed. Classes,
+ * that were loaded before, can still be used after that.
+ * <p>
+ * The URLs of resources in archives are served through the archives, that
+ * are held open by the loader, and not through the cached
+ * {@link JarURLConnection} of the JDK. Hence, no file-handles
+ * survive the closing of the loader.
  *
  * @author kai
  */
-public class MutableClassLoader extends ClassLoader
+public class MutableClassLoader extends ClassLoader implements Closeable
 {
-  private URLClassLoader loader;
-  private Log log;
+  static
+  {
+    registerAsParallelCapable();
+  }
+
+
+  private final Set<URL> urls = new LinkedHashSet<URL>();
+  private final List<Root> roots = new CopyOnWriteArrayList<Root>();
+  private final Map<String, List<Root>> index =
+      new ConcurrentHashMap<String, List<Root>>();
+  private final Log log;
 
 
   public MutableClassLoader(LinkedHashSet<URL> urls, Log log)
   {
-    if (log.isDebugEnabled())
-      for (URL url : urls)
-        log.debug(url.toString());
-    loader =
-        new URLClassLoader(
-            urls.toArray(new URL[urls.size()]),
-            getClass().getClassLoader()
-            );
+    super(MutableClassLoader.class.getClassLoader());
     this.log = log;
+    add(urls);
   }
 
 
-  public MutableClassLoader add(LinkedHashSet<URL> urls)
+  /**
+   * Appends the given URLs, that are not known yet, to the class-path.
+   */
+  public synchronized MutableClassLoader add(LinkedHashSet<URL> urls)
   {
-    LinkedHashSet<URL> old =
-        new LinkedHashSet<URL>(Arrays.asList(loader.getURLs()));
-    old.addAll(urls);
-    if (log.isDebugEnabled())
-      for (URL url : urls)
+    long start = System.currentTimeMillis();
+    int count = 0;
+    for (URL url : urls)
+    {
+      if (!this.urls.add(url))
+        continue;
+      if (log.isDebugEnabled())
         log.debug(url.toString());
-    loader =
-        new URLClassLoader(
-            old.toArray(new URL[urls.size()]),
-            getClass().getClassLoader()
-            );
+      try
+      {
+        Root root = open(url);
+        if (root == null)
+        {
+          log.warn("Ignoring unsupported class-path element " + url);
+          continue;
+        }
+        roots.add(root);
+        for (String pkg : root.packages())
+        {
+          List<Root> list = index.get(pkg);
+          if (list == null)
+          {
+            list = new CopyOnWriteArrayList<Root>();
+            index.put(pkg, list);
+          }
+          list.add(root);
+        }
+        count++;
+      }
+      catch (IOException e)
+      {
+        log.warn("Cannot open class-path element " + url + ": " + e);
+      }
+    }
+    log.debug(
+        "Indexed " + count + " class-path element(s) in " +
+        (System.currentTimeMillis() - start) + " ms, " + index.size() +
+        " packages known"
+        );
     return this;
   }
 
-
+  /**
+   * Closes all archives, that were opened by this loader.
+   */
   @Override
-  public void clearAssertionStatus()
+  public synchronized void close() throws IOException
   {
-    loader.clearAssertionStatus();
+    IOException error = null;
+    for (Root root : roots)
+    {
+      try
+      {
+        root.close();
+      }
+      catch (IOException e)
+      {
+        error = e;
+      }
+    }
+    roots.clear();
+    index.clear();
+    urls.clear();
+    if (error != null)
+      throw error;
   }
 
+
   @Override
-  public void setClassAssertionStatus(String className, boolean enabled)
+  protected Class<?> findClass(String name) throws ClassNotFoundException
   {
-    loader.setClassAssertionStatus(className, enabled);
+    String path = name.replace('.', '/') + ".class";
+    for (Root root : lookup(path))
+    {
+      try
+      {
+        byte[] bytes = root.read(path);
+        if (bytes == null)
+          continue;
+        int i = name.lastIndexOf('.');
+        if (i > 0)
+        {
+          String pkg = name.substring(0, i);
+          if (getPackage(pkg) == null)
+          {
+            try
+            {
+              definePackage(pkg, root);
+            }
+            catch (IllegalArgumentException e)
+            {
+              /** Defined concurrently by another thread */
+            }
+          }
+        }
+        return defineClass(name, bytes, 0, bytes.length, root.domain);
+      }
+      catch (IOException e)
+      {
+        throw new ClassNotFoundException(name, e);
+      }
+    }
+    throw new ClassNotFoundException(name);
+  }
+
+  /**
+   * Defines the package with the attributes from the manifest of the root,
+   * like {@link java.net.URLClassLoader} does.
+   */
+  private void definePackage(String pkg, Root root) throws IOException
+  {
+    Manifest manifest = root.manifest();
+    if (manifest == null)
+    {
+      definePackage(pkg, null, null, null, null, null, null, null);
+      return;
+    }
+    Attributes entry = manifest.getAttributes(pkg.replace('.', '/') + "/");
+    Attributes main = manifest.getMainAttributes();
+    definePackage(
+        pkg,
+        attribute(entry, main, Name.SPECIFICATION_TITLE),
+        attribute(entry, main, Name.SPECIFICATION_VERSION),
+        attribute(entry, main, Name.SPECIFICATION_VENDOR),
+        attribute(entry, main, Name.IMPLEMENTATION_TITLE),
+        attribute(entry, main, Name.IMPLEMENTATION_VERSION),
+        attribute(entry, main, Name.IMPLEMENTATION_VENDOR),
+        "true".equalsIgnoreCase(attribute(entry, main, Name.SEALED))
+            ? root.url
+            : null
+        );
+  }
+
+  /**
+   * @return the value of the attribute for the package, or the value of
+   *         the main-attribute, if the package does not define it
+   */
+  private static String attribute(Attributes entry, Attributes main, Name name)
+  {
+    String value = entry == null ? null : entry.getValue(name);
+    return value == null && main != null ? main.getValue(name) : value;
   }
 
   @Override
-  public void setPackageAssertionStatus(String packageName, boolean enabled)
+  protected URL findResource(String name)
   {
-    loader.setPackageAssertionStatus(packageName, enabled);
+    for (Root root : lookup(name))
+    {
+      URL url = root.find(name);
+      if (url != null)
+        return url;
+    }
+    return null;
   }
 
   @Override
-  public void setDefaultAssertionStatus(boolean enabled)
+  protected Enumeration<URL> findResources(String name) throws IOException
   {
-    loader.setDefaultAssertionStatus(enabled);
+    List<URL> found = new ArrayList<URL>();
+    for (Root root : lookup(name))
+    {
+      URL url = root.find(name);
+      if (url != null)
+        found.add(url);
+    }
+    return Collections.enumeration(found);
   }
 
   @Override
   public InputStream getResourceAsStream(String name)
   {
-    return loader.getResourceAsStream(name);
+    ClassLoader parent = getParent();
+    if (parent != null && parent.getResource(name) != null)
+      return parent.getResourceAsStream(name);
+    for (Root root : lookup(name))
+    {
+      try
+      {
+        InputStream is = root.open(name);
+        if (is != null)
+          return is;
+      }
+      catch (IOException e)
+      {
+        log.debug("Cannot open " + name + " in " + root.url + ": " + e);
+      }
+    }
+    return null;
   }
 
-  @Override
-  public Enumeration<URL> getResources(String name) throws IOException
+
+  private List<Root> lookup(String name)
   {
-    return loader.getResources(name);
+    if (name.startsWith("/"))
+      name = name.substring(1);
+    int i = name.lastIndexOf('/', name.length() - 2);
+    List<Root> list = index.get(i < 0 ? "" : name.substring(0, i + 1));
+    return list == null ? Collections.<Root>emptyList() : list;
   }
 
-  @Override
-  public URL getResource(String name)
+  private static Root open(URL url) throws IOException
   {
-    return loader.getResource(name);
+    if (!"file".equals(url.getProtocol()))
+      return null;
+    File file;
+    try
+    {
+      file = new File(url.toURI());
+    }
+    catch (URISyntaxException e)
+    {
+      file = new File(url.getPath());
+    }
+    if (file.isDirectory())
+      return new DirectoryRoot(url, file);
+    if (file.isFile())
+      return new ArchiveRoot(url, file);
+    /** Missing class-path elements are not an error */
+    return new DirectoryRoot(url, file);
   }
 
-  @Override
-  public Class<?> loadClass(String name) throws ClassNotFoundException
+
+  /**
+   * A class-path element.
+   */
+  private static abstract class Root implements Closeable
+  {
+    final URL url;
+    final ProtectionDomain domain;
+
+
+    Root(URL url)
+    {
+      this.url = url;
+      this.domain =
+          new ProtectionDomain(
+              new CodeSource(url, (Certificate[])null),
+              null
+              );
+    }
+
+
+    /**
+     * @return the packages (directories with a trailing slash, or the
+     *         empty string for the root), that contain resources
+     */
+    abstract Set<String> packages();
+
+    abstract URL find(String name);
+
+    abstract InputStream open(String name) throws IOException;
+
+    /**
+     * @return the manifest of the class-path element, or <code>null</code>
+     */
+    Manifest manifest() throws IOException
+    {
+      return null;
+    }
+
+    byte[] read(String name) throws IOException
+    {
+      InputStream is = open(name);
+      if (is == null)
+        return null;
+      try
+      {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 * 4);
+        byte[] buffer = new byte[1024 * 4];
+        int i;
+        while ((i = is.read(buffer)) > -1)
+          bytes.write(buffer, 0, i);
+        return bytes.toByteArray();
+      }
+      finally
+      {
+        is.close();
+      }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+    }
+  }
+
+  private static class DirectoryRoot extends Root
+  {
+    private final File dir;
+
+
+    DirectoryRoot(URL url, File dir)
+    {
+      super(url);
+      this.dir = dir;
+    }
+
+
+    @Override
+    Set<String> packages()
+    {
+      Set<String> packages = new LinkedHashSet<String>();
+      if (dir.isDirectory())
+        collect(dir, "", packages);
+      return packages;
+    }
+
+    private static void collect(File dir, String path, Set<String> packages)
+    {
+      packages.add(path);
+      File[] files = dir.listFiles();
+      if (files == null)
+        return;
+      for (File file : files)
+        if (file.isDirectory())
+          collect(file, path + file.getName() + "/", packages);
+    }
+
+    @Override
+    URL find(String name)
+    {
+      File file = new File(dir, name);
+      if (!file.exists())
+        return null;
+      try
+      {
+        return file.toURI().toURL();
+      }
+      catch (MalformedURLException e)
+      {
+        return null;
+      }
+    }
+
+    @Override
+    InputStream open(String name) throws IOException
+    {
+      File file = new File(dir, name);
+      return file.isFile() ? new FileInputStream(file) : null;
+    }
+  }
+
+  private static class ArchiveRoot extends Root
   {
-    return loader.loadClass(name);
+    private final JarFile jar;
+    private final String base;
+    private final URLStreamHandler handler = new Handler();
+
+
+    ArchiveRoot(URL url, File file) throws IOException
+    {
+      super(url);
+      this.jar = new JarFile(file);
+      this.base = url + "!/";
+    }
+
+
+    @Override
+    Set<String> packages()
+    {
+      Set<String> packages = new LinkedHashSet<String>();
+      packages.add("");
+      Enumeration<JarEntry> entries = jar.entries();
+      while (entries.hasMoreElements())
+      {
+        String name = entries.nextElement().getName();
+        int i = name.lastIndexOf('/', name.length() - 2);
+        if (i > 0)
+          packages.add(name.substring(0, i + 1));
+      }
+      return packages;
+    }
+
+    @Override
+    URL find(String name)
+    {
+      if (jar.getEntry(name) == null)
+        return null;
+      try
+      {
+        return new URL("jar", "", -1, base + name, handler);
+      }
+      catch (MalformedURLException e)
+      {
+        return null;
+      }
+    }
+
+    @Override
+    InputStream open(String name) throws IOException
+    {
+      JarEntry entry = jar.getJarEntry(name);
+      return entry == null ? null : jar.getInputStream(entry);
+    }
+
+    @Override
+    Manifest manifest() throws IOException
+    {
+      return jar.getManifest();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      jar.close();
+    }
+
+
+    /**
+     * Opens the resources through the archive of this root.
+     */
+    private class Handler extends URLStreamHandler
+    {
+      @Override
+      protected URLConnection openConnection(URL u) throws IOException
+      {
+        String file = u.getFile();
+        if (!file.startsWith(base))
+          throw new MalformedURLException("Not in " + url + ": " + u);
+        final String name = file.substring(base.length());
+        return new JarURLConnection(u)
+        {
+          private JarEntry entry;
+
+          @Override
+          public void connect() throws IOException
+          {
+            if (connected)
+              return;
+            if (name.length() > 0)
+            {
+              try
+              {
+                entry = jar.getJarEntry(name);
+              }
+              catch (IllegalStateException e)
+              {
+                throw closed(e);
+              }
+              if (entry == null)
+                throw new FileNotFoundException(
+                    name + " not found in " + ArchiveRoot.this.url
+                    );
+            }
+            connected = true;
+          }
+
+          /**
+           * @return the archive, that is held open by the class-loader: it
+           *         must not be closed by the caller
+           */
+          @Override
+          public JarFile getJarFile() throws IOException
+          {
+            connect();
+            return jar;
+          }
+
+          @Override
+          public JarEntry getJarEntry() throws IOException
+          {
+            connect();
+            return entry;
+          }
+
+          @Override
+          public InputStream getInputStream() throws IOException
+          {
+            connect();
+            if (entry == null)
+              throw new IOException("No entry specified: " + getURL());
+            try
+            {
+              return jar.getInputStream(entry);
+            }
+            catch (IllegalStateException e)
+            {
+              throw closed(e);
+            }
+          }
+
+          @Override
+          public int getContentLength()
+          {
+            try
+            {
+              connect();
+              return entry == null ? -1 : (int)entry.getSize();
+            }
+            catch (IOException e)
+            {
+              return -1;
+            }
+          }
+        };
+      }
+
+      private IOException closed(IllegalStateException e)
+      {
+        return new IOException("Class-loader was closed: " + url, e);
+      }
+    }
   }
-  
 }
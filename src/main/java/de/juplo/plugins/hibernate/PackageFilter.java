@@ -0,0 +1,195 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+
+/**
+ * Include/exclude-filter for the packages, that are scanned.
+ * <p>
+ * A pattern is a package-name, whose segments may contain the wildcard
+ * <code>*</code>, that matches any number of characters inside a segment.
+ * A segment <code>**</code> matches any number of segments (including none).
+ * For example, <code>com.acme.domain.**</code> matches the package
+ * <code>com.acme.domain</code> and all its sub-packages, while
+ * <code>com.acme.*.model</code> matches the package <code>model</code> in
+ * every direct sub-package of <code>com.acme</code>.
+ * <p>
+ * A package is accepted, if it matches at least one of the includes (or if
+ * no includes are given) and none of the excludes.
+ * Besides that, the filter can tell, whether a whole sub-tree of packages
+ * can be skipped, so that directories and archive-entries can be pruned
+ * before any bytes are read.
+ */
+class PackageFilter
+{
+  private final static Pattern SPLIT = Pattern.compile("[^,\\s]+");
+
+  private final List<String[]> includes;
+  private final List<String[]> excludes;
+  private final String description;
+
+
+  PackageFilter(String includes, String excludes)
+  {
+    this.includes = parse(includes);
+    this.excludes = parse(excludes);
+    this.description =
+        "includes=" + (includes == null ? "" : includes.trim()) +
+        ";excludes=" + (excludes == null ? "" : excludes.trim());
+  }
+
+
+  /**
+   * @return <code>true</code>, if no patterns were configured
+   */
+  boolean isEmpty()
+  {
+    return includes.isEmpty() && excludes.isEmpty();
+  }
+
+  /**
+   * @param name the fully qualified name of a package
+   * @return <code>true</code>, if classes in the package should be scanned
+   */
+  boolean accepts(String name)
+  {
+    String[] segments = split(name);
+    boolean included = includes.isEmpty();
+    for (String[] pattern : includes)
+      if (match(pattern, 0, segments, 0, false))
+      {
+        included = true;
+        break;
+      }
+    if (!included)
+      return false;
+    for (String[] pattern : excludes)
+      if (match(pattern, 0, segments, 0, false))
+        return false;
+    return true;
+  }
+
+  /**
+   * @param name the fully qualified name of a class
+   * @return <code>true</code>, if the package of the class is accepted
+   */
+  boolean acceptsClass(String name)
+  {
+    int i = name.lastIndexOf('.');
+    return accepts(i < 0 ? "" : name.substring(0, i));
+  }
+
+  /**
+   * @param path the path of a resource relative to the scanned root, like
+   *             <code>com/acme/domain/Foo.class</code>
+   * @return <code>true</code>, if the package of the resource is accepted
+   */
+  boolean acceptsPath(String path)
+  {
+    int i = path.lastIndexOf('/');
+    return accepts(i < 0 ? "" : path.substring(0, i).replace('/', '.'));
+  }
+
+  /**
+   * @param name the fully qualified name of a package
+   * @return <code>true</code>, if neither the package nor any of its
+   *         sub-packages can be accepted
+   */
+  boolean skips(String name)
+  {
+    String[] segments = split(name);
+    if (!includes.isEmpty())
+    {
+      boolean possible = false;
+      for (String[] pattern : includes)
+        if (match(pattern, 0, segments, 0, true))
+        {
+          possible = true;
+          break;
+        }
+      if (!possible)
+        return true;
+    }
+    for (String[] pattern : excludes)
+      if (pattern[pattern.length - 1].equals("**")
+          && match(pattern, 0, segments, 0, false))
+        return true;
+    return false;
+  }
+
+
+  @Override
+  public String toString()
+  {
+    return description;
+  }
+
+
+  private static List<String[]> parse(String patterns)
+  {
+    List<String[]> result = new ArrayList<String[]>();
+    if (patterns == null)
+      return result;
+    Matcher matcher = SPLIT.matcher(patterns);
+    while (matcher.find())
+      result.add(split(matcher.group()));
+    return result;
+  }
+
+  private static String[] split(String name)
+  {
+    return name.length() == 0 ? new String[0] : name.split("\\.");
+  }
+
+  /**
+   * Matches the package-segments against the pattern-segments.
+   *
+   * @param prefix if <code>true</code>, the match succeeds, if the package
+   *               is a prefix of a package, that matches the pattern
+   */
+  private static boolean match(
+      String[] pattern,
+      int p,
+      String[] segments,
+      int s,
+      boolean prefix
+      )
+  {
+    if (p == pattern.length)
+      return s == segments.length;
+    if (pattern[p].equals("**"))
+      return
+          match(pattern, p + 1, segments, s, prefix) ||
+          (s < segments.length && match(pattern, p, segments, s + 1, prefix));
+    if (s == segments.length)
+      return prefix;
+    if (!wildcard(pattern[p], 0, segments[s], 0))
+      return false;
+    return match(pattern, p + 1, segments, s + 1, prefix);
+  }
+
+  private static boolean wildcard(String pattern, int p, String value, int v)
+  {
+    while (p < pattern.length())
+    {
+      char c = pattern.charAt(p);
+      if (c == '*')
+      {
+        for (int i = v; i <= value.length(); i++)
+          if (wildcard(pattern, p + 1, value, i))
+            return true;
+        return false;
+      }
+      if (v == value.length() || value.charAt(v) != c)
+        return false;
+      p++;
+      v++;
+    }
+    return v == value.length();
+  }
+}
@@ -0,0 +1,482 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import org.apache.maven.plugin.logging.Log;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.jdbc.spi.SqlStatementLogger;
+import org.hibernate.tool.schema.spi.CommandAcceptanceException;
+import org.hibernate.tool.schema.spi.ExceptionHandler;
+import org.hibernate.tool.schema.spi.ScriptTargetOutput;
+
+
+
+/**
+ * Executes the generated commands against the database over several
+ * connections in parallel.
+ * <p>
+ * Hibernate generates the commands in the order of their dependencies:
+ * namespaces and sequences, then the tables, then the indexes and unique
+ * keys and at last the foreign keys (and the reverse order for a drop).
+ * This output is handed to Hibernate as script-target: it forwards every
+ * command to the next output (i.e., the script-file) in the original order
+ * and collects them. When the output is released, the commands are
+ * classified and split into phases: a phase is a run of consecutive
+ * commands of the same kind, that do not depend on each other. The
+ * commands of a phase are distributed over the connections and the next
+ * phase is only started, after all commands of the current phase are
+ * executed. Commands, that cannot be classified (i.e., comments or the
+ * statements of an import-script), form a phase of their own and are
+ * executed on the connection of the {@link SimpleConnectionProvider}.
+ * <p>
+ * Commands, that fail in parallel, are executed again on their own after
+ * the phase is complete, because the failure may have been caused by a
+ * concurrent command (i.e., a deadlock on the locks of two tables). Only
+ * if that fails too, the error is reported through the
+ * {@link ExceptionHandler} of the execution.
+ */
+class ParallelScriptTargetOutput implements ScriptTargetOutput
+{
+  private final static int FLAGS = Pattern.CASE_INSENSITIVE | Pattern.DOTALL;
+
+  /**
+   * The kinds of commands, that can be executed in parallel.
+   */
+  private enum Kind
+  {
+    NAMESPACE("create\\s+schema\\s.*"),
+    SEQUENCE("create\\s+sequence\\s.*"),
+    TABLE("create\\s+(\\w+\\s+)*table\\s.*"),
+    INDEX(
+        "create\\s+(\\w+\\s+)?index\\s.*|" +
+        "alter\\s+table\\s.*\\sadd\\s+constraint\\s+\\S+\\s+unique\\s.*"
+        ),
+    FOREIGN_KEY("alter\\s+table\\s.*\\sadd\\s+constraint\\s+\\S+\\s+foreign\\s+key\\s.*"),
+    DROP_CONSTRAINT("alter\\s+table\\s.*\\sdrop\\s+(constraint|foreign\\s+key)\\s.*"),
+    DROP_TABLE("drop\\s+table\\s.*"),
+    DROP_SEQUENCE("drop\\s+sequence\\s.*");
+
+    private final Pattern pattern;
+
+    Kind(String regex)
+    {
+      this.pattern = Pattern.compile(regex, FLAGS);
+    }
+
+    /**
+     * @return the kind of the command or <code>null</code>, if the command
+     *         has to be executed on its own
+     */
+    static Kind of(String command)
+    {
+      String trimmed = command.trim();
+      for (Kind kind : values())
+        if (kind.pattern.matcher(trimmed).matches())
+          return kind;
+      return null;
+    }
+  }
+
+
+  private final ScriptTargetOutput next;
+  private final SimpleConnectionProvider provider;
+  private final int threads;
+  private final int size;
+  private final String delimiter;
+  private final ExceptionHandler handler;
+  private final SqlStatementLogger logger;
+  private final Log log;
+
+  private final List<String> commands = new ArrayList<String>();
+  private final List<Connection> connections = new ArrayList<Connection>();
+  private ExecutorService executor;
+
+
+  /**
+   * @param next the output to forward the commands to, or
+   *             <code>null</code>
+   * @param threads the maximal number of connections, that are used
+   * @param size the maximal number of commands per batch
+   * @param delimiter the delimiter, that Hibernate appends to the commands
+   *                  of a script, or <code>null</code>
+   * @param logger the logger for the executed commands (<code>show</code>),
+   *               or <code>null</code>
+   */
+  ParallelScriptTargetOutput(
+      ScriptTargetOutput next,
+      SimpleConnectionProvider provider,
+      int threads,
+      int size,
+      String delimiter,
+      ExceptionHandler handler,
+      SqlStatementLogger logger,
+      Log log
+      )
+  {
+    this.next = next;
+    this.provider = provider;
+    this.threads = threads;
+    this.size = Math.max(size, 1);
+    this.delimiter = delimiter;
+    this.handler = handler;
+    this.logger = logger;
+    this.log = log;
+  }
+
+
+  @Override
+  public void prepare()
+  {
+    if (next != null)
+      next.prepare();
+    commands.clear();
+  }
+
+  @Override
+  public void accept(String command)
+  {
+    if (next != null)
+      next.accept(command);
+
+    if (delimiter != null && command.endsWith(delimiter))
+      command = command.substring(0, command.length() - delimiter.length());
+    commands.add(command);
+  }
+
+  @Override
+  public void release()
+  {
+    try
+    {
+      execute();
+    }
+    catch (RuntimeException e)
+    {
+      /** Hibernate ignores exceptions, that are thrown during the release */
+      handler.handleException(
+          new CommandAcceptanceException(
+              "Error executing DDL via JDBC Statement: " + e.getMessage(),
+              e
+              )
+          );
+    }
+    finally
+    {
+      close();
+      if (next != null)
+        next.release();
+    }
+  }
+
+
+  private void execute()
+  {
+    long start = System.currentTimeMillis();
+    int phases = 0;
+    int parallel = 0;
+    int i = 0;
+    while (i < commands.size())
+    {
+      Kind kind = Kind.of(commands.get(i));
+      int j = i + 1;
+      if (kind != null)
+        while (j < commands.size() && Kind.of(commands.get(j)) == kind)
+          j++;
+      List<String> phase = commands.subList(i, j);
+      phases++;
+      if (phase.size() > 1 && connect() > 1)
+      {
+        log.debug(
+            "Executing " + phase.size() + " commands of kind " + kind +
+            " on " + connections.size() + " connections"
+            );
+        parallel += phase.size();
+        parallel(phase);
+      }
+      else
+      {
+        serial(phase, handler);
+      }
+      i = j;
+    }
+    log.debug(
+        "Executed " + commands.size() + " commands in " + phases +
+        " phase(s), " + parallel + " of them in parallel, in " +
+        (System.currentTimeMillis() - start) + " ms"
+        );
+  }
+
+  /**
+   * Executes the commands on the connection of the provider.
+   */
+  private void serial(List<String> phase, ExceptionHandler handler)
+  {
+    BatchingScriptTargetOutput output =
+        new BatchingScriptTargetOutput(
+            null,
+            provider,
+            size,
+            null,
+            handler,
+            logger,
+            log
+            );
+    output.prepare();
+    try
+    {
+      for (String command : phase)
+      {
+        try
+        {
+          output.accept(command);
+        }
+        catch (CommandAcceptanceException e)
+        {
+          /** Thrown, if no connection is available */
+          handler.handleException(e);
+        }
+      }
+    }
+    finally
+    {
+      output.release();
+    }
+  }
+
+  /**
+   * Distributes the commands over all connections.
+   */
+  private void parallel(final List<String> phase)
+  {
+    final List<String> failed =
+        Collections.synchronizedList(new ArrayList<String>());
+    final AtomicInteger position = new AtomicInteger();
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (final Connection connection : connections)
+    {
+      futures.add(executor.submit(new Callable<Void>()
+      {
+        @Override
+        public Void call()
+        {
+          BatchingScriptTargetOutput output =
+              new BatchingScriptTargetOutput(
+                  null,
+                  new Fixed(connection),
+                  size,
+                  null,
+                  handler,
+                  logger,
+                  log
+                  )
+              {
+                @Override
+                void failed(String command, SQLException e)
+                {
+                  log.debug("Command failed in parallel: " + command + " - " + e.getMessage());
+                  failed.add(command);
+                }
+              };
+          output.prepare();
+          try
+          {
+            int i;
+            while ((i = position.getAndIncrement()) < phase.size())
+              output.accept(phase.get(i));
+          }
+          finally
+          {
+            output.release();
+          }
+          return null;
+        }
+      }));
+    }
+    await(futures);
+
+    if (!failed.isEmpty())
+    {
+      log.debug("Executing " + failed.size() + " failed command(s) again");
+      serial(new ArrayList<String>(failed), handler);
+    }
+  }
+
+  /**
+   * Opens the additional connections, if not done yet.
+   *
+   * @return the number of available connections
+   */
+  private int connect()
+  {
+    if (executor != null)
+      return connections.size();
+
+    final Connection connection;
+    try
+    {
+      connection = provider.getConnection();
+    }
+    catch (SQLException e)
+    {
+      /** Reported by the serial execution */
+      return 0;
+    }
+
+    executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+    {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable)
+      {
+        Thread thread =
+            new Thread(
+                runnable,
+                "hibernate-maven-plugin-ddl-" + count.incrementAndGet()
+                );
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    List<Future<Connection>> opened = new ArrayList<Future<Connection>>();
+    for (int i = 1; i < threads; i++)
+      opened.add(executor.submit(new Callable<Connection>()
+      {
+        @Override
+        public Connection call() throws SQLException
+        {
+          return provider.openAdditional();
+        }
+      }));
+
+    connections.add(connection);
+    for (Future<Connection> future : opened)
+    {
+      try
+      {
+        connections.add(future.get());
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      catch (ExecutionException e)
+      {
+        log.warn("Could not open an additional JDBC-connection: " + e.getCause().getMessage());
+      }
+    }
+    log.debug("Using " + connections.size() + " JDBC-connection(s) for the DDL");
+    return connections.size();
+  }
+
+  private static void await(List<Future<Void>> futures)
+  {
+    RuntimeException error = null;
+    for (Future<Void> future : futures)
+    {
+      try
+      {
+        future.get();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while executing the DDL", e);
+      }
+      catch (ExecutionException e)
+      {
+        if (e.getCause() instanceof RuntimeException)
+          error = (RuntimeException)e.getCause();
+        else
+          error = new IllegalStateException(e.getCause());
+      }
+    }
+    if (error != null)
+      throw error;
+  }
+
+  private void close()
+  {
+    if (executor != null)
+    {
+      executor.shutdownNow();
+      executor = null;
+    }
+    /** The first connection belongs to the provider */
+    for (int i = 1; i < connections.size(); i++)
+    {
+      try
+      {
+        connections.get(i).close();
+      }
+      catch (SQLException e)
+      {
+        log.warn("Error while closing an additional JDBC-connection: " + e.getMessage());
+      }
+    }
+    connections.clear();
+    commands.clear();
+  }
+
+
+  /**
+   * Hands out one connection, that is managed by the enclosing output.
+   */
+  private static class Fixed implements ConnectionProvider
+  {
+    private final static long serialVersionUID = 1L;
+
+    private final Connection connection;
+
+
+    Fixed(Connection connection)
+    {
+      this.connection = connection;
+    }
+
+
+    @Override
+    public Connection getConnection()
+    {
+      return connection;
+    }
+
+    @Override
+    public void closeConnection(Connection conn)
+    {
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease()
+    {
+      return false;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean isUnwrappableAs(Class unwrapType)
+    {
+      return false;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> unwrapType)
+    {
+      throw new UnsupportedOperationException("Not supported.");
+    }
+  }
+}
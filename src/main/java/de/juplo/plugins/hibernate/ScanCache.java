@@ -0,0 +1,220 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.logging.Log;
+
+
+
+/**
+ * On-disk cache for the results of scans of released dependencies.
+ * <p>
+ * Released artifacts never change. Hence, the annotated classes found in
+ * such an artifact are remembered in a small file per artifact and looked
+ * up on subsequent runs instead of scanning the artifact again. Results
+ * without any annotated classes are cached too, so that the bulk of
+ * irrelevant dependencies is skipped at once.
+ * <p>
+ * An entry is only used, if the coordinates of the artifact and the size,
+ * the modification-time and the checksum of its file are unchanged. The
+ * checksum is calculated from the central directory of the archive, which
+ * contains the CRC of every entry. Hence, the archive itself does not have
+ * to be read. Because the scan-result depends on the configured
+ * {@link PackageFilter}, the filter is part of the key too.
+ * <p>
+ * Only artifacts, that were explicitly registered are cached.
+ * SNAPSHOT-artifacts and directories are never registered and, hence,
+ * always scanned.
+ */
+class ScanCache
+{
+  private final static int VERSION = 3;
+
+
+  private final File dir;
+  private final String filter;
+  private final Log log;
+  private final Map<URL, Artifact> artifacts =
+      new ConcurrentHashMap<URL, Artifact>();
+
+
+  ScanCache(File dir, PackageFilter filter, Log log)
+  {
+    this.dir = dir;
+    this.filter = filter.toString();
+    this.log = log;
+  }
+
+
+  /**
+   * Registers the file of the given artifact for caching, if the artifact
+   * is cachable.
+   *
+   * @return <code>true</code>, if the artifact was registered
+   */
+  boolean register(URL url, Artifact artifact)
+  {
+    if (artifact.isSnapshot() || !artifact.getFile().isFile())
+      return false;
+    artifacts.put(url, artifact);
+    return true;
+  }
+
+
+  /**
+   * Looks up the cached scan-result for the given root.
+   *
+   * @return the cached set of annotated classes or <code>null</code>, if
+   *         the root is not cachable or no valid entry was found.
+   */
+  Set<String> get(URL root)
+  {
+    Artifact artifact = artifacts.get(root);
+    if (artifact == null)
+      return null;
+
+    File file = getFile(artifact);
+    if (!file.isFile())
+      return null;
+
+    try
+    {
+      File jar = artifact.getFile();
+      DataInputStream dis =
+          new DataInputStream(
+              new BufferedInputStream(new FileInputStream(file)));
+      try
+      {
+        if (dis.readInt() != VERSION
+            || !dis.readUTF().equals(artifact.getId())
+            || !dis.readUTF().equals(filter)
+            || dis.readLong() != jar.length()
+            || dis.readLong() != jar.lastModified()
+            || dis.readLong() != checksum(jar))
+        {
+          log.debug("Cached scan-result for " + artifact.getId() + " is stale");
+          return null;
+        }
+        int count = dis.readInt();
+        Set<String> classes = new HashSet<String>(count);
+        for (int i = 0; i < count; i++)
+          classes.add(dis.readUTF());
+        log.debug(
+            "Using cached scan-result for " + artifact.getId() + ": " +
+            classes.size() + " annotated classes"
+            );
+        return classes;
+      }
+      finally
+      {
+        dis.close();
+      }
+    }
+    catch (IOException e)
+    {
+      log.debug("Cannot read cached scan-result from " + file + ": " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Stores the scan-result for the given root, if it is cachable.
+   */
+  void put(URL root, Set<String> classes)
+  {
+    Artifact artifact = artifacts.get(root);
+    if (artifact == null)
+      return;
+
+    File file = getFile(artifact);
+    File tmp = null;
+    try
+    {
+      file.getParentFile().mkdirs();
+      tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+      File jar = artifact.getFile();
+      DataOutputStream dos =
+          new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(tmp)));
+      try
+      {
+        dos.writeInt(VERSION);
+        dos.writeUTF(artifact.getId());
+        dos.writeUTF(filter);
+        dos.writeLong(jar.length());
+        dos.writeLong(jar.lastModified());
+        dos.writeLong(checksum(jar));
+        dos.writeInt(classes.size());
+        for (String name : classes)
+          dos.writeUTF(name);
+      }
+      finally
+      {
+        dos.close();
+      }
+      file.delete();
+      if (!tmp.renameTo(file))
+        throw new IOException("cannot rename " + tmp + " to " + file);
+      tmp = null;
+    }
+    catch (IOException e)
+    {
+      log.debug("Cannot write cached scan-result to " + file + ": " + e);
+    }
+    finally
+    {
+      if (tmp != null)
+        tmp.delete();
+    }
+  }
+
+
+  private File getFile(Artifact artifact)
+  {
+    File group = new File(dir, artifact.getGroupId());
+    return new File(group, artifact.getFile().getName() + ".scan");
+  }
+
+  private static long checksum(File jar) throws IOException
+  {
+    CRC32 crc = new CRC32();
+    ZipFile archive = new ZipFile(jar);
+    try
+    {
+      Enumeration<? extends ZipEntry> entries = archive.entries();
+      while (entries.hasMoreElements())
+      {
+        ZipEntry entry = entries.nextElement();
+        crc.update(entry.getName().getBytes(ClassFile.UTF8));
+        long value = entry.getCrc();
+        for (int i = 0; i < 8; i++)
+          crc.update((int)(value >>> (i * 8)));
+        value = entry.getSize();
+        for (int i = 0; i < 8; i++)
+          crc.update((int)(value >>> (i * 8)));
+      }
+    }
+    finally
+    {
+      archive.close();
+    }
+    return crc.getValue();
+  }
+}
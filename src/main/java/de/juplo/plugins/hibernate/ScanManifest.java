@@ -0,0 +1,205 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.maven.plugin.logging.Log;
+
+
+
+/**
+ * Manifest of the class-files found in the scanned directories.
+ * <p>
+ * For every class-file, the size, the modification-time and the name of
+ * the annotated class (if the class is annotated) are remembered.
+ * On the next run, only class-files, that were added or changed, have to be
+ * read and parsed again. Removed class-files simply drop out of the
+ * manifest, because only the class-files, that are visited during the
+ * current scan, are written back.
+ */
+class ScanManifest
+{
+  private final static int VERSION = 2;
+
+
+  private final File saved;
+  private final Log log;
+
+  private Map<String, Entry> previous = new HashMap<String, Entry>();
+  private final Map<String, Entry> current =
+      new ConcurrentHashMap<String, Entry>();
+
+
+  ScanManifest(String buildDirectory, String filename, Log log)
+  {
+    File output = new File(filename + ".manifest");
+    if (output.isAbsolute())
+    {
+      saved = output;
+    }
+    else
+    {
+      // Interpret relative file path relative to build directory
+      saved = new File(buildDirectory, output.getPath());
+    }
+    this.log = log;
+  }
+
+
+  /**
+   * Looks up the given class-file.
+   *
+   * @return the remembered entry, if the size and the modification-time of
+   *         the class-file are unchanged, or <code>null</code> otherwise.
+   */
+  Entry lookup(File file)
+  {
+    String path = file.getPath();
+    Entry entry = previous.get(path);
+    if (entry == null
+        || entry.size != file.length()
+        || entry.modified != file.lastModified())
+      return null;
+    current.put(path, entry);
+    return entry;
+  }
+
+  /**
+   * Remembers the result of the scan of the given class-file.
+   *
+   * @param name the name of the annotated class or <code>null</code>, if
+   *             the class is not annotated
+   */
+  void record(File file, long size, long modified, String name)
+  {
+    current.put(file.getPath(), new Entry(size, modified, name));
+  }
+
+
+  /**
+   * Takes over the entries, that were visited by the scan of another goal.
+   * <p>
+   * If a goal reuses the result of the scan of another goal, it does not
+   * visit any class-files itself. Nevertheless, its manifest has to be
+   * written, so that its next run does not have to rescan all class-files.
+   */
+  void adopt(ScanManifest other)
+  {
+    current.putAll(other.current);
+  }
+
+
+  void load()
+  {
+    if (!saved.isFile())
+      return;
+
+    try
+    {
+      DataInputStream dis =
+          new DataInputStream(
+              new BufferedInputStream(new FileInputStream(saved)));
+      try
+      {
+        if (dis.readInt() != VERSION)
+        {
+          log.debug("Ignoring manifest of unknown version: " + saved.getPath());
+          return;
+        }
+        int count = dis.readInt();
+        Map<String, Entry> entries = new HashMap<String, Entry>(count * 2);
+        for (int i = 0; i < count; i++)
+        {
+          String path = dis.readUTF();
+          long size = dis.readLong();
+          long modified = dis.readLong();
+          String name = dis.readBoolean() ? dis.readUTF() : null;
+          entries.put(path, new Entry(size, modified, name));
+        }
+        previous = entries;
+      }
+      finally
+      {
+        dis.close();
+      }
+    }
+    catch (IOException e)
+    {
+      log.warn("Cannot read manifest of scanned classes: " + e);
+    }
+  }
+
+  void save()
+  {
+    File tmp = null;
+    try
+    {
+      saved.getAbsoluteFile().getParentFile().mkdirs();
+      tmp =
+          File.createTempFile(
+              saved.getName(),
+              ".tmp",
+              saved.getAbsoluteFile().getParentFile()
+              );
+      DataOutputStream dos =
+          new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(tmp)));
+      try
+      {
+        dos.writeInt(VERSION);
+        dos.writeInt(current.size());
+        for (Map.Entry<String, Entry> entry : current.entrySet())
+        {
+          dos.writeUTF(entry.getKey());
+          dos.writeLong(entry.getValue().size);
+          dos.writeLong(entry.getValue().modified);
+          String name = entry.getValue().name;
+          dos.writeBoolean(name != null);
+          if (name != null)
+            dos.writeUTF(name);
+        }
+      }
+      finally
+      {
+        dos.close();
+      }
+      saved.delete();
+      if (!tmp.renameTo(saved))
+        throw new IOException("cannot rename " + tmp + " to " + saved);
+      tmp = null;
+    }
+    catch (IOException e)
+    {
+      log.warn("Cannot write manifest of scanned classes: " + e);
+    }
+    finally
+    {
+      if (tmp != null)
+        tmp.delete();
+    }
+  }
+
+
+  static final class Entry
+  {
+    final long size;
+    final long modified;
+    final String name;
+
+    Entry(long size, long modified, String name)
+    {
+      this.size = size;
+      this.modified = modified;
+      this.name = name;
+    }
+  }
+}
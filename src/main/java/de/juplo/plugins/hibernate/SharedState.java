@@ -0,0 +1,154 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.maven.project.MavenProject;
+import org.hibernate.boot.cfgxml.spi.LoadedConfig;
+import org.hibernate.jpa.boot.internal.ParsedPersistenceXmlDescriptor;
+
+
+
+/**
+ * State, that is shared between the goals, that are executed for the same
+ * module during one build.
+ * <p>
+ * If, for example, the goals <code>drop</code> and <code>create</code> are
+ * both bound to a module, the second goal reuses the loaded configuration,
+ * the result of the scan and the fingerprints of the classes, that were
+ * calculated by the first goal. Only the checks, that are specific for the
+ * output of the goal, are performed again.
+ * <p>
+ * The state is stored as context-value of the {@link MavenProject}, keyed
+ * by the effective configuration of the plugin. Hence, it lives as long as
+ * the build of the module and goals with a diverging configuration do not
+ * share any state.
+ */
+class SharedState
+{
+  private final static String KEY = SharedState.class.getName();
+
+
+  private Properties properties;
+  private LoadedConfig config;
+  private ParsedPersistenceXmlDescriptor unit;
+
+  private Set<String> classes;
+  private Set<String> packages;
+  private ScanManifest manifest;
+
+  private final Map<String,String> fingerprints =
+      new ConcurrentHashMap<String,String>();
+
+
+  /**
+   * Looks up the shared state for the given configuration.
+   *
+   * @param configuration a description of the effective configuration
+   * @return the shared state, that is created, if it did not exist yet
+   */
+  static SharedState get(MavenProject project, String configuration)
+  {
+    String key = KEY + ":" + configuration;
+    Object value = project.getContextValue(key);
+    if (value instanceof SharedState)
+      return (SharedState)value;
+    SharedState state = new SharedState();
+    project.setContextValue(key, state);
+    return state;
+  }
+
+
+  boolean isConfigured()
+  {
+    return properties != null;
+  }
+
+  /**
+   * Remembers the loaded configuration.
+   *
+   * @param properties the merged configuration-values, before they are
+   *                   overwritten by the configuration of the plugin
+   */
+  void configured(
+      Properties properties,
+      LoadedConfig config,
+      ParsedPersistenceXmlDescriptor unit
+      )
+  {
+    this.properties = new Properties();
+    this.properties.putAll(properties);
+    this.config = config;
+    this.unit = unit;
+  }
+
+  Properties getProperties()
+  {
+    Properties copy = new Properties();
+    copy.putAll(properties);
+    return copy;
+  }
+
+  LoadedConfig getConfig()
+  {
+    return config;
+  }
+
+  ParsedPersistenceXmlDescriptor getUnit()
+  {
+    return unit;
+  }
+
+
+  boolean isScanned()
+  {
+    return classes != null;
+  }
+
+  /**
+   * Remembers the result of the scan.
+   *
+   * @param classes the annotated classes
+   * @param packages the annotated packages
+   * @param manifest the manifest, that was filled by the scan
+   */
+  void scanned(
+      Set<String> classes,
+      Set<String> packages,
+      ScanManifest manifest
+      )
+  {
+    this.classes = Collections.unmodifiableSet(new HashSet<String>(classes));
+    this.packages = Collections.unmodifiableSet(new HashSet<String>(packages));
+    this.manifest = manifest;
+  }
+
+  Set<String> getClasses()
+  {
+    return classes;
+  }
+
+  Set<String> getPackages()
+  {
+    return packages;
+  }
+
+  ScanManifest getManifest()
+  {
+    return manifest;
+  }
+
+
+  /**
+   * @return the fingerprints, that are shared between the trackers (see
+   *         {@link ModificationTracker#share(Map)})
+   */
+  Map<String,String> getFingerprints()
+  {
+    return fingerprints;
+  }
+}
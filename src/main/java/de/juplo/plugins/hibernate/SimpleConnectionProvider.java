@@ -7,8 +7,13 @@ import java.sql.DriverPropertyInfo;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
-import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
 import static org.eclipse.aether.repository.AuthenticationContext.PASSWORD;
 import static org.eclipse.aether.repository.AuthenticationContext.USERNAME;
@@ -29,9 +34,29 @@ import static org.hibernate.jpa.AvailableSettings.JDBC_USER;
  */
 class SimpleConnectionProvider implements ConnectionProvider
 {
+  /** The connection is opened, when {@link #open()} is called */
+  final static String EAGER = "eager";
+  /** The connection is opened, when it is requested the first time */
+  final static String LAZY = "lazy";
+  /** The connection is opened in the background by {@link #prefetch()} */
+  final static String PREFETCH = "prefetch";
+
+
   private final Log log;
 
+  private Boolean configured;
+  private String url;
+  private String user;
+  private String password;
+
   private Connection connection;
+  private boolean attempted = false;
+  private DriverProxy proxy;
+  private boolean registered = false;
+  private ExecutorService executor;
+  private Future<Connection> prefetched;
+  private final ThreadLocal<ConnectionProvider> route =
+      new ThreadLocal<ConnectionProvider>();
 
 
   SimpleConnectionProvider(Log log)
@@ -40,22 +65,29 @@ class SimpleConnectionProvider implements ConnectionProvider
   }
 
 
-  void open(ClassLoaderService classLoaderService, Properties properties)
-      throws
-        MojoFailureException
+  /**
+   * Picks up the connection information and registers the JDBC-driver.
+   * No connection is opened.
+   *
+   * @return <code>true</code>, if the connection information is complete
+   */
+  boolean configure(ClassLoaderService classLoaderService, Properties properties)
   {
+    if (configured != null)
+      return configured;
+    configured = false;
 
     String driver = (String)properties.getProperty(DRIVER);
-    String url = (String)properties.getProperty(URL);
-    String user = (String)properties.getProperty(USER);
-    String password = (String)properties.getProperty(PASS);
+    url = (String)properties.getProperty(URL);
+    user = (String)properties.getProperty(USER);
+    password = (String)properties.getProperty(PASS);
 
     if (driver == null || url == null)
     {
       log.info("No connection opened, because connection information is incomplete");
       log.info("Driver-Class: " + driver);
       log.info("URL: " + url);
-      return;
+      return false;
     }
 
     try
@@ -63,44 +95,230 @@ class SimpleConnectionProvider implements ConnectionProvider
       Class driverClass = classLoaderService.classForName(driver);
 
       log.debug("Registering JDBC-driver " + driverClass.getName());
-      DriverManager
-          .registerDriver(new DriverProxy((Driver) driverClass.newInstance()));
-
-      log.debug(
-          "Opening JDBC-connection to " + url +
-          " as " + user +
-          " with password " + password
-          );
-    
-      connection = DriverManager.getConnection(url, user, password);
+      proxy = new DriverProxy((Driver) driverClass.newInstance());
+      DriverManager.registerDriver(proxy);
+      registered = true;
+      configured = true;
+      return true;
     }
     catch (Exception e)
+    {
+      log.info("Could not register the JDBC-driver: " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Creates a provider for another database, that is reached through the
+   * same driver with the same credentials. The driver stays registered by
+   * this provider. The connection of the new provider is opened lazily.
+   */
+  SimpleConnectionProvider forUrl(String url)
+  {
+    SimpleConnectionProvider target = new SimpleConnectionProvider(log);
+    target.configured = configured;
+    target.url = url;
+    target.user = user;
+    target.password = password;
+    target.proxy = proxy;
+    return target;
+  }
+
+  /**
+   * Routes the requests of the current thread to the given provider.
+   * Hibernate looks up the connection in its service-registry: this allows
+   * to execute the same metadata against several databases concurrently.
+   *
+   * @param provider the provider to use, or <code>null</code> to use this
+   *                 provider again
+   */
+  void route(ConnectionProvider provider)
+  {
+    if (provider == null)
+      route.remove();
+    else
+      route.set(provider);
+  }
+
+  /**
+   * Opens the connection at once.
+   * If the connection cannot be opened, Hibernate has to get along without
+   * a connection.
+   */
+  synchronized void open()
+  {
+    if (proxy == null || attempted || prefetched != null)
+      return;
+    attempted = true;
+    try
+    {
+      connection = connect();
+    }
+    catch (SQLException e)
     {
       log.info("Could not open the JDBC-connection: " + e.getMessage());
     }
   }
 
-  void close()
+  /**
+   * Starts to open the connection on a background-thread.
+   * The connection is picked up, when it is requested the first time.
+   */
+  synchronized void prefetch()
   {
-    if (connection == null)
+    if (proxy == null || attempted || prefetched != null)
       return;
+    attempted = true;
+    executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+      @Override
+      public Thread newThread(Runnable runnable)
+      {
+        Thread thread = new Thread(runnable, "hibernate-maven-plugin-connect");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    prefetched = executor.submit(new Callable<Connection>()
+    {
+      @Override
+      public Connection call() throws SQLException
+      {
+        return connect();
+      }
+    });
+    executor.shutdown();
+  }
 
-    log.debug("Closing the JDBC-connection.");
+  private Connection connect() throws SQLException
+  {
+    log.debug("Opening JDBC-connection to " + url + " as " + user);
+    long start = System.currentTimeMillis();
+    Connection opened = DriverManager.getConnection(url, user, password);
+    log.debug(
+        "Opened JDBC-connection in " + (System.currentTimeMillis() - start) +
+        " ms"
+        );
+    return opened;
+  }
+
+  /**
+   * Opens an additional connection with the same connection information.
+   * The connection is not managed by this provider: the caller has to
+   * close it.
+   */
+  Connection openAdditional() throws SQLException
+  {
+    if (proxy == null)
+      throw new SQLException("No connection available, because of insufficient connection information!");
+    return connect();
+  }
+
+  /**
+   * Waits for the connection, that was opened in the background.
+   */
+  private void await() throws SQLException
+  {
+    Future<Connection> future = prefetched;
+    prefetched = null;
     try
     {
-      connection.close();
+      connection = future.get();
     }
-    catch (SQLException e)
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while opening the JDBC-connection", e);
+    }
+    catch (ExecutionException e)
+    {
+      log.info("Could not open the JDBC-connection: " + e.getCause().getMessage());
+      if (e.getCause() instanceof SQLException)
+        throw (SQLException)e.getCause();
+      throw new SQLException(e.getCause());
+    }
+  }
+
+  synchronized void close()
+  {
+    if (prefetched != null)
     {
-      log.error("Error while closing the JDBC-connection: " + e.getMessage());
+      try
+      {
+        await();
+      }
+      catch (SQLException e)
+      {
+        /** Already logged */
+      }
     }
+    executor = null;
+
+    if (connection != null)
+    {
+      log.debug("Closing the JDBC-connection.");
+      try
+      {
+        connection.close();
+      }
+      catch (SQLException e)
+      {
+        log.error("Error while closing the JDBC-connection: " + e.getMessage());
+      }
+      connection = null;
+    }
+
+    if (proxy != null && registered)
+    {
+      /**
+       * The proxy references the driver and, hence, the ClassLoader of the
+       * project: deregister it, so that both can be garbage-collected
+       */
+      log.debug("Deregistering JDBC-driver " + proxy.target.getClass().getName());
+      try
+      {
+        DriverManager.deregisterDriver(proxy);
+      }
+      catch (SQLException e)
+      {
+        log.warn("Error while deregistering the JDBC-driver: " + e.getMessage());
+      }
+      registered = false;
+    }
+    proxy = null;
   }
 
   @Override
   public Connection getConnection() throws SQLException
+  {
+    ConnectionProvider target = route.get();
+    if (target != null)
+      return target.getConnection();
+    return connection();
+  }
+
+  private synchronized Connection connection() throws SQLException
   {
     log.debug("Connection aquired.");
 
+    if (prefetched != null)
+      await();
+
+    if (proxy != null && !attempted)
+    {
+      /** Lazy mode: open the connection on the first request */
+      attempted = true;
+      try
+      {
+        connection = connect();
+      }
+      catch (SQLException e)
+      {
+        log.info("Could not open the JDBC-connection: " + e.getMessage());
+        throw e;
+      }
+    }
+
     if (connection == null)
       throw new SQLException("No connection available, because of insufficient connection information!");
 
@@ -0,0 +1,219 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import org.apache.maven.plugin.logging.Log;
+
+
+
+/**
+ * Snapshot of everything, that the result of an execution depends on.
+ * <p>
+ * The snapshot only consists of values, that can be determined without
+ * bootstrapping Hibernate: the effective configuration of the plugin and
+ * the stat-data (size and modification-time) of the elements of the
+ * class-path, of the files in the class-path-directories and of the
+ * configuration-files. Nothing is read, besides the meta-data of the
+ * file-system. All these values are condensed into a single fingerprint.
+ * <p>
+ * After a successful execution, the fingerprint is stored together with
+ * the stat-data of the generated script. If both match on the next run,
+ * the execution can be skipped before any Hibernate-service is built.
+ * If the snapshot does not match, that does not mean, that anything has
+ * changed: the exact check is done by the {@link ModificationTracker}.
+ */
+class Snapshot
+{
+  private final static int VERSION = 1;
+  private final static byte SEPARATOR = 0;
+
+
+  private final File saved;
+  private final Log log;
+  private final Fingerprint.Hasher hasher;
+
+  private String fingerprint;
+
+
+  Snapshot(String buildDirectory, String filename, Log log)
+  {
+    File output = new File(filename + ".snapshot");
+    if (output.isAbsolute())
+    {
+      saved = output;
+    }
+    else
+    {
+      // Interpret relative file path relative to build directory
+      saved = new File(buildDirectory, output.getPath());
+    }
+    this.log = log;
+    try
+    {
+      hasher = Fingerprint.forName(Fingerprint.XXHASH64).hasher();
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+
+
+  /**
+   * Adds a value of the configuration.
+   */
+  void add(Object value)
+  {
+    if (fingerprint != null)
+      throw new IllegalStateException("Snapshot is already complete");
+    byte[] bytes = String.valueOf(value).getBytes(ClassFile.UTF8);
+    hasher.update(bytes, 0, bytes.length);
+    hasher.update(new byte[] { SEPARATOR }, 0, 1);
+  }
+
+  /**
+   * Adds the stat-data of the given file. For a directory, the stat-data
+   * of all files in the directory and its sub-directories is added.
+   */
+  void stat(File file)
+  {
+    add(file.getAbsolutePath());
+    if (file.isDirectory())
+    {
+      walk(file, "");
+      return;
+    }
+    add(statOf(file));
+  }
+
+  private void walk(File dir, String path)
+  {
+    String[] names = dir.list();
+    if (names == null)
+      return;
+    Arrays.sort(names);
+    for (String name : names)
+    {
+      File file = new File(dir, name);
+      if (file.isDirectory())
+      {
+        walk(file, path + name + "/");
+      }
+      else
+      {
+        add(path + name);
+        add(statOf(file));
+      }
+    }
+  }
+
+  private static String statOf(File file)
+  {
+    if (!file.exists())
+      return "-";
+    return file.length() + ":" + file.lastModified();
+  }
+
+
+  /**
+   * @return the fingerprint of all values, that were added
+   */
+  String getFingerprint()
+  {
+    if (fingerprint == null)
+      fingerprint = hasher.digest();
+    return fingerprint;
+  }
+
+  /**
+   * Compares the snapshot and the stat-data of the generated script with
+   * the values, that were stored after the last successful execution.
+   *
+   * @return <code>true</code>, if nothing has changed
+   */
+  boolean matches(File output)
+  {
+    if (!saved.isFile())
+      return false;
+    try
+    {
+      DataInputStream dis =
+          new DataInputStream(
+              new BufferedInputStream(new FileInputStream(saved)));
+      try
+      {
+        return
+            dis.readInt() == VERSION &&
+            dis.readUTF().equals(getFingerprint()) &&
+            dis.readUTF().equals(statOf(output));
+      }
+      finally
+      {
+        dis.close();
+      }
+    }
+    catch (IOException e)
+    {
+      log.debug("Cannot read the snapshot " + saved + ": " + e);
+      return false;
+    }
+  }
+
+  /**
+   * Stores the snapshot together with the current stat-data of the
+   * generated script.
+   */
+  void save(File output)
+  {
+    File tmp = null;
+    try
+    {
+      saved.getParentFile().mkdirs();
+      tmp = File.createTempFile(saved.getName(), ".tmp", saved.getParentFile());
+      DataOutputStream dos =
+          new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(tmp)));
+      try
+      {
+        dos.writeInt(VERSION);
+        dos.writeUTF(getFingerprint());
+        dos.writeUTF(statOf(output));
+      }
+      finally
+      {
+        dos.close();
+      }
+      saved.delete();
+      if (!tmp.renameTo(saved))
+        throw new IOException("cannot rename " + tmp + " to " + saved);
+      tmp = null;
+    }
+    catch (IOException e)
+    {
+      log.debug("Cannot write the snapshot " + saved + ": " + e);
+    }
+    finally
+    {
+      if (tmp != null)
+        tmp.delete();
+    }
+  }
+
+  /**
+   * Removes the stored snapshot, so that the next execution does the
+   * exact check.
+   */
+  void delete()
+  {
+    saved.delete();
+  }
+}
@@ -78,4 +78,13 @@ public class UpdateMojo extends AbstractSchemaMojo
 
     tool.getSchemaMigrator(config).doMigration(metadata, options, target);
   }
+
+  /**
+   * The migration depends on the current state of the database.
+   */
+  @Override
+  boolean isScriptReproducible()
+  {
+    return false;
+  }
 }
@@ -0,0 +1,350 @@
+package de.juplo.plugins.hibernate;
+
+
+import de.juplo.plugins.hibernate.BatchingScriptTargetOutput.Outcome;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.jdbc.internal.Formatter;
+import org.hibernate.engine.jdbc.spi.SqlStatementLogger;
+import org.hibernate.tool.schema.spi.CommandAcceptanceException;
+import org.hibernate.tool.schema.spi.ExceptionHandler;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+
+
+/**
+ * Tests for the handling of failed batches in the
+ * {@link BatchingScriptTargetOutput}.
+ * <p>
+ * The JDBC-connection and its statement are simulated by proxies, that
+ * record the executed commands and fail with the configured exceptions.
+ */
+public class BatchingScriptTargetOutputTest
+{
+  private final static int FAILED = Statement.EXECUTE_FAILED;
+  private final static int NO_INFO = Statement.SUCCESS_NO_INFO;
+
+  private final static Outcome A = Outcome.APPLIED;
+  private final static Outcome F = Outcome.FAILED;
+  private final static Outcome U = Outcome.UNKNOWN;
+
+
+  /** The commands, that were executed, or <code>"batch: ..."</code> */
+  private final List<String> executed = new ArrayList<String>();
+  /**
+   * The exceptions, that the next calls of executeBatch() throw:
+   * <code>null</code> lets a call succeed
+   */
+  private final LinkedList<SQLException> failures = new LinkedList<SQLException>();
+  /** The commands, that were reported as failed */
+  private final List<String> reported = new ArrayList<String>();
+  /** The commands, that were logged */
+  private final List<String> logged = new ArrayList<String>();
+
+
+  @Test
+  public void testOutcomesStoppedAtFailure()
+  {
+    assertArrayEquals(
+        new Outcome[] { A, A, F, U },
+        BatchingScriptTargetOutput.outcomes(new int[] { 0, NO_INFO }, 4)
+        );
+  }
+
+  @Test
+  public void testOutcomesContinuedAfterFailure()
+  {
+    assertArrayEquals(
+        new Outcome[] { A, F, A, F },
+        BatchingScriptTargetOutput.outcomes(new int[] { 0, FAILED, NO_INFO, FAILED }, 4)
+        );
+  }
+
+  @Test
+  public void testOutcomesInconclusive()
+  {
+    assertArrayEquals(
+        new Outcome[] { U, U },
+        BatchingScriptTargetOutput.outcomes(null, 2)
+        );
+    assertArrayEquals(
+        new Outcome[] { U, U },
+        BatchingScriptTargetOutput.outcomes(new int[0], 2)
+        );
+    assertArrayEquals(
+        new Outcome[] { U, U, U },
+        BatchingScriptTargetOutput.outcomes(new int[] { 0, FAILED }, 3)
+        );
+    assertArrayEquals(
+        new Outcome[] { U, U },
+        BatchingScriptTargetOutput.outcomes(new int[] { 0, 0, 0 }, 2)
+        );
+  }
+
+  @Test
+  public void testOutcomesRolledBack()
+  {
+    assertArrayEquals(
+        new Outcome[] { U, U, U },
+        BatchingScriptTargetOutput.outcomes(new int[] { FAILED, FAILED, FAILED }, 3)
+        );
+  }
+
+  @Test
+  public void testStoppedAtFailure()
+  {
+    failures.add(new BatchUpdateException(new int[] { 0 }));
+    execute(false, "a", "b", "c", "d");
+    assertEquals(
+        Arrays.asList("batch: a, b, c, d", "batch: c, d"),
+        executed
+        );
+    assertEquals(Arrays.asList("b"), reported);
+  }
+
+  @Test
+  public void testRolledBack()
+  {
+    failures.add(new BatchUpdateException(new int[] { FAILED, FAILED, FAILED }));
+    execute(false, "a", "b", "c");
+    assertEquals(Arrays.asList("batch: a, b, c", "a", "b", "c"), executed);
+    assertEquals(Arrays.asList(), reported);
+  }
+
+  @Test
+  public void testInconclusive()
+  {
+    failures.add(new BatchUpdateException((int[])null));
+    execute(false, "a", "b");
+    assertEquals(Arrays.asList("batch: a, b", "a", "b"), executed);
+  }
+
+  @Test
+  public void testFailedAsWhole()
+  {
+    failures.add(new SQLException("connection lost"));
+    execute(false, "a", "b");
+    assertEquals(Arrays.asList("batch: a, b"), executed);
+    assertEquals(Arrays.asList("a", "b"), reported);
+  }
+
+  @Test
+  public void testTransactional()
+  {
+    failures.add(new BatchUpdateException(new int[] { 0 }));
+    execute(true, "a", "b", "c");
+    assertEquals(Arrays.asList("batch: a, b, c", "ROLLBACK"), executed);
+    assertEquals(Arrays.asList("b"), reported);
+  }
+
+  @Test
+  public void testTransactionalRolledBackImmediately()
+  {
+    failures.add(null);
+    failures.add(new BatchUpdateException(new int[0]));
+    BatchingScriptTargetOutput output = output(true, 1);
+    output.prepare();
+    output.accept("a");
+    output.accept("b");
+    /** Rolled back before the next command arrives */
+    assertEquals(Arrays.asList("batch: a", "batch: b", "ROLLBACK"), executed);
+    output.accept("c");
+    output.accept("d");
+    output.release();
+    assertEquals(Arrays.asList("batch: a", "batch: b", "ROLLBACK"), executed);
+    assertEquals(Arrays.asList("b"), reported);
+  }
+
+  @Test
+  public void testLogged()
+  {
+    failures.add(new BatchUpdateException(new int[] { 0 }));
+    execute(false, "a", "b", "c");
+    assertEquals(Arrays.asList("a", "b", "c"), logged);
+  }
+
+  @Test
+  public void testTransactionalCommitted()
+  {
+    execute(true, "a", "b");
+    assertEquals(Arrays.asList("batch: a, b", "COMMIT"), executed);
+  }
+
+
+  private void execute(boolean transactional, String... commands)
+  {
+    BatchingScriptTargetOutput output = output(transactional, commands.length);
+    output.prepare();
+    for (String command : commands)
+      output.accept(command);
+    output.release();
+  }
+
+  private BatchingScriptTargetOutput output(boolean transactional, int size)
+  {
+    return
+        new BatchingScriptTargetOutput(
+            null,
+            new Provider(connection()),
+            size,
+            null,
+            new ExceptionHandler()
+            {
+              @Override
+              public void handleException(CommandAcceptanceException e)
+              {
+                throw e;
+              }
+            },
+            new SqlStatementLogger()
+            {
+              @Override
+              public void logStatement(String statement, Formatter formatter)
+              {
+                logged.add(statement);
+              }
+            },
+            new QuietLog(),
+            transactional
+            )
+        {
+          @Override
+          void failed(String command, SQLException e)
+          {
+            reported.add(command);
+          }
+        };
+  }
+
+  private Connection connection()
+  {
+    final Statement statement = proxy(Statement.class, new InvocationHandler()
+    {
+      private final List<String> batch = new ArrayList<String>();
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+          throws
+            Throwable
+      {
+        String name = method.getName();
+        if (name.equals("addBatch"))
+        {
+          batch.add((String)args[0]);
+          return null;
+        }
+        if (name.equals("clearBatch"))
+        {
+          batch.clear();
+          return null;
+        }
+        if (name.equals("executeBatch"))
+        {
+          StringBuilder builder = new StringBuilder("batch: ");
+          for (int i = 0; i < batch.size(); i++)
+            builder.append(i == 0 ? "" : ", ").append(batch.get(i));
+          executed.add(builder.toString());
+          int[] counts = new int[batch.size()];
+          batch.clear();
+          SQLException failure = failures.isEmpty() ? null : failures.removeFirst();
+          if (failure != null)
+            throw failure;
+          return counts;
+        }
+        if (name.equals("execute"))
+        {
+          executed.add((String)args[0]);
+          return false;
+        }
+        return null;
+      }
+    });
+    return proxy(Connection.class, new InvocationHandler()
+    {
+      private boolean autoCommit = true;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        String name = method.getName();
+        if (name.equals("createStatement"))
+          return statement;
+        if (name.equals("getAutoCommit"))
+          return autoCommit;
+        if (name.equals("setAutoCommit"))
+          autoCommit = (Boolean)args[0];
+        if (name.equals("commit") || name.equals("rollback"))
+          executed.add(name.toUpperCase());
+        return null;
+      }
+    });
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, InvocationHandler handler)
+  {
+    return
+        (T)Proxy.newProxyInstance(
+            BatchingScriptTargetOutputTest.class.getClassLoader(),
+            new Class<?>[] { type },
+            handler
+            );
+  }
+
+
+  private final static class Provider implements ConnectionProvider
+  {
+    private final static long serialVersionUID = 1L;
+
+    private final transient Connection connection;
+
+
+    Provider(Connection connection)
+    {
+      this.connection = connection;
+    }
+
+
+    @Override
+    public Connection getConnection()
+    {
+      return connection;
+    }
+
+    @Override
+    public void closeConnection(Connection connection)
+    {
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease()
+    {
+      return false;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean isUnwrappableAs(Class unwrapType)
+    {
+      return false;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> unwrapType)
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
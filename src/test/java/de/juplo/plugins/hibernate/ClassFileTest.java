@@ -0,0 +1,135 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+
+
+/**
+ * Tests for the parsing of the constant-pool in {@link ClassFile}.
+ */
+public class ClassFileTest
+{
+  @Entity
+  @Table(name = "annotated")
+  public static class Annotated
+  {
+    @Id
+    Long id;
+    double d = 1.5; // Adds a double (two slots) to the constant-pool
+    long l = 42L;   // Adds a long (two slots) to the constant-pool
+  }
+
+  public static class Plain
+  {
+    String value = "javax.persistence.Entity"; // Not a descriptor!
+  }
+
+
+  @Test
+  public void testReferences() throws IOException
+  {
+    assertTrue(ClassFile.references(bytes(Annotated.class), ClassScanner.DESCRIPTORS));
+    assertFalse(ClassFile.references(bytes(Plain.class), ClassScanner.DESCRIPTORS));
+  }
+
+  @Test
+  public void testReferencesIgnoresInvalidInput()
+  {
+    assertFalse(ClassFile.references(new byte[0], ClassScanner.DESCRIPTORS));
+    assertFalse(ClassFile.references(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 }, ClassScanner.DESCRIPTORS));
+  }
+
+  @Test
+  public void testReferencesTruncated() throws IOException
+  {
+    byte[] bytes = bytes(Annotated.class);
+    byte[] truncated = Arrays.copyOf(bytes, 40);
+    assertFalse(ClassFile.references(truncated, ClassScanner.DESCRIPTORS));
+  }
+
+  @Test
+  public void testReferencesPrefixInStream() throws IOException
+  {
+    byte[] prefix = "javax/persistence/".getBytes(ClassFile.UTF8);
+    assertTrue(ClassFile.references(stream(Annotated.class), prefix));
+    assertFalse(ClassFile.references(stream(Plain.class), prefix));
+    assertFalse(
+        ClassFile.references(
+            new ByteArrayInputStream(Arrays.copyOf(bytes(Annotated.class), 12)),
+            "does/not/occur".getBytes(ClassFile.UTF8)
+            )
+        );
+  }
+
+  @Test
+  public void testParse() throws IOException
+  {
+    ClassFile annotated = new ClassFile(bytes(Annotated.class));
+    assertEquals(Annotated.class.getName(), annotated.getName());
+    assertTrue(annotated.getAnnotations().contains(Entity.class.getName()));
+    assertTrue(annotated.getAnnotations().contains(Table.class.getName()));
+    assertEquals(2, annotated.getAnnotations().size());
+
+    ClassFile plain = new ClassFile(bytes(Plain.class));
+    assertEquals(Plain.class.getName(), plain.getName());
+    assertTrue(plain.getAnnotations().isEmpty());
+  }
+
+  @Test
+  public void testParseInvalid() throws IOException
+  {
+    try
+    {
+      new ClassFile(new byte[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 });
+      fail("bad magic number not detected");
+    }
+    catch (IOException e)
+    {
+    }
+    try
+    {
+      new ClassFile(Arrays.copyOf(bytes(Annotated.class), 100));
+      fail("truncated class-file not detected");
+    }
+    catch (IOException e)
+    {
+    }
+  }
+
+  @Test
+  public void testDescriptors()
+  {
+    assertEquals(
+        "Ljavax/persistence/Entity;",
+        new String(ClassFile.nameToDescriptor(Entity.class.getName()), ClassFile.UTF8)
+        );
+    assertEquals(
+        Entity.class.getName(),
+        ClassFile.descriptorToName("Ljavax/persistence/Entity;")
+        );
+  }
+
+
+  static byte[] bytes(Class<?> cls) throws IOException
+  {
+    return ClassScanner.read(stream(cls), -1);
+  }
+
+  static InputStream stream(Class<?> cls)
+  {
+    String name = cls.getName();
+    return cls.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class");
+  }
+}
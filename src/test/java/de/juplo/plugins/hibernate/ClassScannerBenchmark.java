@@ -0,0 +1,73 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import org.apache.maven.plugin.logging.Log;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+
+/**
+ * Reproducible benchmark for the {@link ClassScanner}.
+ * <p>
+ * Times the modes of {@link ClassScannerTest}: every mode is repeated a
+ * few times and the fastest run is reported. The name of this class does
+ * not match the patterns of surefire, so that the benchmark is not part
+ * of the normal build. It has to be started explicitly:
+ * <code>mvn test -Dtest=ClassScannerBenchmark</code>
+ */
+public class ClassScannerBenchmark
+{
+  private final static int ROUNDS = 3;
+
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Log log = new QuietLog();
+
+
+  @Test
+  public void benchmark() throws IOException
+  {
+    Set<URL> roots = ClassScannerTest.roots();
+    File cacheDir = folder.newFolder("scan-cache");
+    Map<String, Long> timings = new LinkedHashMap<String, Long>();
+    int found = 0;
+
+    for (boolean parallel : new boolean[] { false, true })
+    {
+      for (boolean cached : new boolean[] { false, true })
+      {
+        String mode =
+            (parallel ? "parallel" : "serial") + ", cache " +
+            (cached ? "on" : "off");
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++)
+        {
+          long start = System.nanoTime();
+          found =
+              ClassScannerTest
+                  .scan(roots, parallel, cached ? cacheDir : null, log)
+                  .size();
+          best = Math.min(best, System.nanoTime() - start);
+        }
+        timings.put(mode, best / 1000000);
+      }
+    }
+
+    System.out.println(
+        "ClassScanner-benchmark: " + found + " annotated classes in " + roots
+        );
+    for (Entry<String, Long> timing : timings.entrySet())
+      System.out.println("  " + timing.getKey() + ": " + timing.getValue() + " ms");
+  }
+}
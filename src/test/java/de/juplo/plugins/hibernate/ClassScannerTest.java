@@ -0,0 +1,136 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.plugin.logging.Log;
+import org.hibernate.Session;
+import org.hibernate.envers.DefaultRevisionEntity;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+
+/**
+ * Tests for the modes of the {@link ClassScanner}.
+ * <p>
+ * Scans a fixed set of jars from the test class-path (hibernate-envers and
+ * hibernate-core) serially and in parallel, with the {@link ScanCache}
+ * switched off and on. All modes must find exactly the same classes.
+ */
+public class ClassScannerTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Log log = new QuietLog();
+
+  private Set<URL> roots;
+
+
+  @Before
+  public void setUp()
+  {
+    roots = roots();
+  }
+
+
+  @Test
+  public void testScanModes() throws IOException
+  {
+    File cacheDir = folder.newFolder("scan-cache");
+    Set<String> expected =
+        new TreeSet<String>(scan(roots, false, null, log));
+    assertTrue(expected.contains(DefaultRevisionEntity.class.getName()));
+    assertEquals(
+        "parallel, cache off",
+        expected,
+        new TreeSet<String>(scan(roots, true, null, log))
+        );
+    assertEquals(
+        "serial, cache on",
+        expected,
+        new TreeSet<String>(scan(roots, false, cacheDir, log))
+        );
+    assertEquals(
+        "parallel, cache on",
+        expected,
+        new TreeSet<String>(scan(roots, true, cacheDir, log))
+        );
+  }
+
+
+  /**
+   * @return the jars of hibernate-envers and hibernate-core
+   */
+  static Set<URL> roots()
+  {
+    Set<URL> roots = new LinkedHashSet<URL>();
+    roots.add(jarOf(DefaultRevisionEntity.class));
+    roots.add(jarOf(Session.class));
+    return roots;
+  }
+
+  /**
+   * @param cacheDir the directory of the {@link ScanCache}, or
+   *                 <code>null</code>, if no cache should be used
+   */
+  static Set<String> scan(
+      Set<URL> roots,
+      boolean parallel,
+      File cacheDir,
+      Log log
+      )
+      throws
+        IOException
+  {
+    PackageFilter filter = new PackageFilter(null, null);
+    ScanCache cache = null;
+    if (cacheDir != null)
+    {
+      cache = new ScanCache(cacheDir, filter, log);
+      for (URL root : roots)
+      {
+        File file = ClassScanner.toFile(root);
+        DefaultArtifact artifact =
+            new DefaultArtifact(
+                "test",
+                file.getName(),
+                "1.0",
+                "compile",
+                "jar",
+                null,
+                new DefaultArtifactHandler("jar")
+                );
+        artifact.setFile(file);
+        cache.register(root, artifact);
+      }
+    }
+    ClassScanner scanner =
+        new ClassScanner(
+            log,
+            parallel,
+            filter,
+            cache,
+            null,
+            Collections.<URL>emptySet()
+            );
+    return scanner.scan(roots);
+  }
+
+  private static URL jarOf(Class<?> cls)
+  {
+    return cls.getProtectionDomain().getCodeSource().getLocation();
+  }
+}
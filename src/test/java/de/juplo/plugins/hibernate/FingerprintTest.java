@@ -0,0 +1,132 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+
+/**
+ * Tests for the algorithms of the {@link Fingerprint}.
+ */
+public class FingerprintTest
+{
+  private final static String SPAM = "Nobody inspects the spammish repetition";
+
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+
+  @Test
+  public void testXXHash64() throws Exception
+  {
+    Fingerprint fingerprint = Fingerprint.forName(Fingerprint.XXHASH64);
+    assertEquals(Fingerprint.XXHASH64, fingerprint.getName());
+    assertEquals("ef46db3751d8e999", calculate(fingerprint, ""));
+    assertEquals("d24ec4f1a98c6e5b", calculate(fingerprint, "a"));
+    assertEquals("44bc2cf5ad770999", calculate(fingerprint, "abc"));
+    assertEquals("fbcea83c8a378bf1", calculate(fingerprint, SPAM));
+    assertEquals("e146cb31b65bc21a", fingerprint.calculate(ByteBuffer.wrap(data())));
+  }
+
+  @Test
+  public void testMD5() throws Exception
+  {
+    Fingerprint fingerprint = Fingerprint.forName("MD5");
+    assertEquals(Fingerprint.MD5, fingerprint.getName());
+    assertEquals("d41d8cd98f00b204e9800998ecf8427e", calculate(fingerprint, ""));
+    assertEquals("900150983cd24fb0d6963f7d28e17f72", calculate(fingerprint, "abc"));
+  }
+
+  @Test
+  public void testDefault() throws Exception
+  {
+    assertEquals(Fingerprint.MD5, Fingerprint.forName(null).getName());
+    try
+    {
+      Fingerprint.forName("crc32");
+      fail("unknown algorithm not detected");
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+    }
+  }
+
+  @Test
+  public void testIncremental() throws Exception
+  {
+    byte[] data = data();
+    for (String algorithm : new String[] { Fingerprint.MD5, Fingerprint.XXHASH64 })
+    {
+      Fingerprint fingerprint = Fingerprint.forName(algorithm);
+      String expected = fingerprint.calculate(ByteBuffer.wrap(data));
+      for (int step : new int[] { 1, 3, 7, 31, 32, 33, 100 })
+      {
+        Fingerprint.Hasher hasher = fingerprint.hasher();
+        for (int i = 0; i < data.length; i += step)
+          hasher.update(data, i, Math.min(step, data.length - i));
+        assertEquals(algorithm + ", step " + step, expected, hasher.digest());
+      }
+    }
+  }
+
+  @Test
+  public void testSources() throws Exception
+  {
+    byte[] data = data();
+    File file = folder.newFile("fingerprint.bin");
+    OutputStream os = new FileOutputStream(file);
+    try
+    {
+      os.write(data);
+    }
+    finally
+    {
+      os.close();
+    }
+    for (String algorithm : new String[] { Fingerprint.MD5, Fingerprint.XXHASH64 })
+    {
+      Fingerprint fingerprint = Fingerprint.forName(algorithm);
+      String expected = fingerprint.calculate(ByteBuffer.wrap(data));
+      assertEquals(expected, fingerprint.calculate(file));
+      assertEquals(expected, fingerprint.calculate(new ByteArrayInputStream(data)));
+      ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+      direct.put(data);
+      direct.flip();
+      assertEquals(expected, fingerprint.calculate(direct));
+    }
+  }
+
+
+  private static String calculate(Fingerprint fingerprint, String data)
+      throws
+        IOException
+  {
+    return fingerprint.calculate(ByteBuffer.wrap(data.getBytes("US-ASCII")));
+  }
+
+  /**
+   * @return 1027 bytes: a multiple of the stripes of xxHash64 plus a tail
+   */
+  private static byte[] data()
+  {
+    byte[] data = new byte[256 * 4 + 3];
+    for (int i = 0; i < 256 * 4; i++)
+      data[i] = (byte)i;
+    data[1024] = 'x';
+    data[1025] = 'y';
+    data[1026] = 'z';
+    return data;
+  }
+}
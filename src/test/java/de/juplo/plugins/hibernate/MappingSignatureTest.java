@@ -0,0 +1,172 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import javax.persistence.Entity;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assume.assumeNotNull;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+
+/**
+ * Tests for {@link ClassFile#getMappingSignature()}.
+ * <p>
+ * Variants of an entity are compiled and the signatures of the resulting
+ * class-files are compared.
+ */
+public class MappingSignatureTest
+{
+  private final static String ENTITY =
+      "import javax.persistence.*;\n" +
+      "@Entity\n" +
+      "public class Foo\n" +
+      "{\n" +
+      "  @Id Long id;\n" +
+      "  %s private String name;\n" +
+      "  public String getName()\n" +
+      "  {\n" +
+      "    %s\n" +
+      "  }\n" +
+      "}\n";
+
+  private final static String ANNOTATION = "@Column(length = 10)";
+  private final static String BODY = "return name;";
+
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private JavaCompiler compiler;
+
+
+  @Before
+  public void setUp()
+  {
+    compiler = ToolProvider.getSystemJavaCompiler();
+    assumeNotNull(compiler);
+  }
+
+
+  @Test
+  public void testDebugInformation() throws IOException
+  {
+    byte[] debug = compile(ANNOTATION, BODY, true);
+    byte[] plain = compile(ANNOTATION, BODY, false);
+    assertFalse(Arrays.equals(debug, plain));
+    assertArrayEquals(signature(debug), signature(plain));
+  }
+
+  @Test
+  public void testCode() throws IOException
+  {
+    byte[] original = compile(ANNOTATION, BODY, true);
+    byte[] changed =
+        compile(ANNOTATION, "\n\n    return name == null ? \"\" : name.trim();", true);
+    assertFalse(Arrays.equals(original, changed));
+    assertArrayEquals(signature(original), signature(changed));
+  }
+
+  @Test
+  public void testSyntheticMembers() throws IOException
+  {
+    byte[] original = compile(ANNOTATION, BODY, true);
+    /** The access to the private field from the inner class adds an accessor */
+    byte[] changed =
+        compile(
+            ANNOTATION,
+            "return new Object() { public String toString() { return name; } }.toString();",
+            true
+            );
+    assertFalse(Arrays.equals(original, changed));
+    assertArrayEquals(signature(original), signature(changed));
+  }
+
+  @Test
+  public void testAnnotations() throws IOException
+  {
+    byte[] original = compile(ANNOTATION, BODY, true);
+    assertFalse(Arrays.equals(signature(original), signature(compile("", BODY, true))));
+    assertFalse(
+        Arrays.equals(
+            signature(original),
+            signature(compile("@Column(length = 20)", BODY, true))
+            )
+        );
+  }
+
+  @Test
+  public void testMembers() throws IOException
+  {
+    byte[] original = compile(ANNOTATION, BODY, true);
+    byte[] changed = compile("int count; " + ANNOTATION, BODY, true);
+    assertFalse(Arrays.equals(signature(original), signature(changed)));
+  }
+
+
+  private byte[] compile(String annotation, String body, boolean debug)
+      throws
+        IOException
+  {
+    File dir = folder.newFolder();
+    File source = new File(dir, "Foo.java");
+    OutputStream os = new FileOutputStream(source);
+    try
+    {
+      os.write(String.format(ENTITY, annotation, body).getBytes("UTF-8"));
+    }
+    finally
+    {
+      os.close();
+    }
+
+    File classes = new File(dir, "classes");
+    classes.mkdirs();
+    String classpath =
+        ClassScanner
+            .toFile(Entity.class.getProtectionDomain().getCodeSource().getLocation())
+            .getPath();
+    int result =
+        compiler.run(
+            null,
+            null,
+            null,
+            debug ? "-g" : "-g:none",
+            "-nowarn",
+            "-classpath",
+            classpath,
+            "-d",
+            classes.getPath(),
+            source.getPath()
+            );
+    assertEquals("compilation failed", 0, result);
+
+    InputStream is = new FileInputStream(new File(classes, "Foo.class"));
+    try
+    {
+      return ClassScanner.read(is, -1);
+    }
+    finally
+    {
+      is.close();
+    }
+  }
+
+  private static byte[] signature(byte[] bytes) throws IOException
+  {
+    return new ClassFile(bytes).getMappingSignature();
+  }
+}
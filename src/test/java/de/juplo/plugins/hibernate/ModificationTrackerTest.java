@@ -0,0 +1,244 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.HashMap;
+import org.apache.maven.plugin.logging.Log;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+
+/**
+ * Tests for the store of the {@link ModificationTracker}.
+ */
+public class ModificationTrackerTest
+{
+  private final static String CONTENT = "content of the class";
+  private final static String MD5_OF_CONTENT = md5(CONTENT);
+
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Log log = new QuietLog();
+
+  private File dir;
+  private File resource;
+
+
+  @Before
+  public void setUp() throws IOException
+  {
+    dir = folder.getRoot();
+    resource = new File(dir, "Resource.class");
+    write(resource, CONTENT);
+  }
+
+
+  @Test
+  public void testRoundTrip() throws Exception
+  {
+    for (String algorithm : new String[] { Fingerprint.MD5, Fingerprint.XXHASH64 })
+    {
+      ModificationTracker tracker = tracker(algorithm);
+      tracker.load();
+      assertTrue(tracker.track("hibernate.dialect", "H2"));
+      assertTrue(tracker.track("com.acme.Resource", url(resource)));
+      assertTrue(tracker.track("com.acme.Stream", stream("stream")));
+      assertTrue(tracker.track("Unqualified", stream("unqualified")));
+      tracker.setApplied("0123456789abcdef");
+      assertTrue(tracker.modified());
+      tracker.save();
+
+      tracker = tracker(algorithm);
+      tracker.load();
+      assertFalse(tracker.track("hibernate.dialect", "H2"));
+      assertFalse(tracker.track("com.acme.Resource", url(resource)));
+      assertFalse(tracker.track("com.acme.Stream", stream("stream")));
+      assertFalse(tracker.track("Unqualified", stream("unqualified")));
+      assertEquals("0123456789abcdef", tracker.getApplied());
+      assertFalse(algorithm, tracker.modified());
+      tracker.save();
+
+      new File(dir, "test.md5s").delete();
+    }
+  }
+
+  @Test
+  public void testModifications() throws Exception
+  {
+    ModificationTracker tracker = tracker(Fingerprint.MD5);
+    tracker.load();
+    tracker.track("hibernate.dialect", "H2");
+    tracker.track("hibernate.removed", "true");
+    tracker.track("com.acme.Resource", url(resource));
+    tracker.track("com.acme.Removed", stream("removed"));
+    tracker.modified();
+    tracker.save();
+
+    write(resource, "changed " + CONTENT);
+
+    tracker = tracker(Fingerprint.MD5);
+    tracker.load();
+    assertTrue(tracker.track("hibernate.dialect", "PostgreSQL"));
+    assertTrue(tracker.track("com.acme.Resource", url(resource)));
+    assertTrue(tracker.modified());
+    tracker.save();
+
+    /** The removed entries were dropped */
+    tracker = tracker(Fingerprint.MD5);
+    tracker.load();
+    assertFalse(tracker.track("hibernate.dialect", "PostgreSQL"));
+    assertFalse(tracker.track("com.acme.Resource", url(resource)));
+    assertFalse(tracker.modified());
+    tracker.save();
+  }
+
+  @Test
+  public void testAlgorithmChanged() throws Exception
+  {
+    ModificationTracker tracker = tracker(Fingerprint.MD5);
+    tracker.load();
+    tracker.track("hibernate.dialect", "H2");
+    tracker.track("com.acme.Resource", url(resource));
+    tracker.setApplied(MD5_OF_CONTENT);
+    tracker.save();
+
+    /** Fingerprints of another algorithm are discarded */
+    tracker = tracker(Fingerprint.XXHASH64);
+    tracker.load();
+    assertFalse(tracker.track("hibernate.dialect", "H2"));
+    assertTrue(tracker.track("com.acme.Resource", url(resource)));
+    assertNull(tracker.getApplied());
+    tracker.save();
+  }
+
+  @Test
+  public void testLegacy() throws Exception
+  {
+    HashMap<String,String> properties = new HashMap<String,String>();
+    properties.put("hibernate.dialect", "H2");
+    HashMap<String,String> classes = new HashMap<String,String>();
+    classes.put("com.acme.Resource", MD5_OF_CONTENT);
+    writeLegacy(properties, classes);
+
+    ModificationTracker tracker = tracker(Fingerprint.MD5);
+    tracker.load();
+    assertFalse(tracker.track("hibernate.dialect", "H2"));
+    assertFalse(tracker.track("com.acme.Resource", url(resource)));
+    assertFalse(tracker.modified());
+    tracker.touch();
+    tracker.save();
+
+    /** The store was converted into the binary format */
+    tracker = tracker(Fingerprint.MD5);
+    tracker.load();
+    assertFalse(tracker.track("hibernate.dialect", "H2"));
+    assertFalse(tracker.track("com.acme.Resource", url(resource)));
+    assertFalse(tracker.modified());
+    tracker.save();
+  }
+
+  @Test
+  public void testLegacyOtherAlgorithm() throws Exception
+  {
+    HashMap<String,String> properties = new HashMap<String,String>();
+    properties.put("hibernate.dialect", "H2");
+    HashMap<String,String> classes = new HashMap<String,String>();
+    classes.put("com.acme.Resource", MD5_OF_CONTENT);
+    writeLegacy(properties, classes);
+
+    /** Older versions only knew MD5 */
+    ModificationTracker tracker = tracker(Fingerprint.XXHASH64);
+    tracker.load();
+    assertFalse(tracker.track("hibernate.dialect", "H2"));
+    assertTrue(tracker.track("com.acme.Resource", url(resource)));
+    tracker.save();
+  }
+
+  @Test
+  public void testCorrupted() throws Exception
+  {
+    write(new File(dir, "test.md5s"), "garbage, that is no store");
+
+    ModificationTracker tracker = tracker(Fingerprint.MD5);
+    tracker.load();
+    assertTrue(tracker.track("hibernate.dialect", "H2"));
+    tracker.save();
+  }
+
+
+  private ModificationTracker tracker(String algorithm) throws Exception
+  {
+    return new ModificationTracker(dir.getPath(), "test", algorithm, false, log);
+  }
+
+  private void writeLegacy(
+      HashMap<String,String> properties,
+      HashMap<String,String> classes
+      )
+      throws
+        IOException
+  {
+    ObjectOutputStream oos =
+        new ObjectOutputStream(new FileOutputStream(new File(dir, "test.md5s")));
+    try
+    {
+      oos.writeObject(properties);
+      oos.writeObject(classes);
+    }
+    finally
+    {
+      oos.close();
+    }
+  }
+
+  private static URL url(File file) throws IOException
+  {
+    return file.toURI().toURL();
+  }
+
+  private static InputStream stream(String content) throws IOException
+  {
+    return new ByteArrayInputStream(content.getBytes("UTF-8"));
+  }
+
+  private static void write(File file, String content) throws IOException
+  {
+    OutputStream os = new FileOutputStream(file);
+    try
+    {
+      os.write(content.getBytes("UTF-8"));
+    }
+    finally
+    {
+      os.close();
+    }
+  }
+
+  private static String md5(String content)
+  {
+    try
+    {
+      return Fingerprint.forName(Fingerprint.MD5).calculate(stream(content));
+    }
+    catch (Exception e)
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.LinkedHashSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import static org.junit.Assume.assumeNotNull;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+
+/**
+ * Tests for the resources and packages of the {@link MutableClassLoader}.
+ */
+public class MutableClassLoaderTest
+{
+  private final static String RESOURCE = "fixture/resource.txt";
+  private final static String CONTENT = "Hello World!";
+
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File dir;
+  private File jar;
+  private MutableClassLoader loader;
+
+
+  @Before
+  public void setUp() throws IOException
+  {
+    dir = folder.getRoot();
+    jar = new File(dir, "fixture.jar");
+
+    Manifest manifest = new Manifest();
+    Attributes main = manifest.getMainAttributes();
+    main.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    main.put(Attributes.Name.IMPLEMENTATION_TITLE, "Fixture");
+    main.put(Attributes.Name.IMPLEMENTATION_VERSION, "1.2.3");
+    Attributes entry = new Attributes();
+    entry.put(Attributes.Name.SPECIFICATION_VERSION, "4.5");
+    manifest.getEntries().put("fixture/", entry);
+
+    JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar), manifest);
+    try
+    {
+      jos.putNextEntry(new JarEntry(RESOURCE));
+      jos.write(CONTENT.getBytes("UTF-8"));
+      byte[] bytes = compile();
+      if (bytes != null)
+      {
+        jos.putNextEntry(new JarEntry("fixture/Fixture.class"));
+        jos.write(bytes);
+      }
+    }
+    finally
+    {
+      jos.close();
+    }
+
+    LinkedHashSet<URL> urls = new LinkedHashSet<URL>();
+    urls.add(jar.toURI().toURL());
+    loader = new MutableClassLoader(urls, new QuietLog());
+  }
+
+  @After
+  public void tearDown() throws IOException
+  {
+    loader.close();
+  }
+
+
+  @Test
+  public void testResource() throws IOException
+  {
+    URL url = loader.getResource(RESOURCE);
+    assertNotNull(url);
+    assertEquals("jar:" + jar.toURI().toURL() + "!/" + RESOURCE, url.toString());
+    assertEquals(CONTENT, read(url.openStream()));
+    assertEquals(CONTENT.length(), url.openConnection().getContentLength());
+    assertEquals(
+        jar.getAbsolutePath() + "!/" + RESOURCE,
+        ClassScanner.locationOf(url)
+        );
+    assertNull(loader.getResource("fixture/missing.txt"));
+  }
+
+  @Test
+  public void testResourceAfterClose() throws IOException
+  {
+    URL url = loader.getResource(RESOURCE);
+    loader.close();
+    try
+    {
+      url.openStream().close();
+      fail("the resource was not served by the closed archive of the loader");
+    }
+    catch (IOException e)
+    {
+    }
+  }
+
+  @Test
+  public void testPackage() throws Exception
+  {
+    assumeNotNull(ToolProvider.getSystemJavaCompiler());
+    Class<?> fixture = loader.loadClass("fixture.Fixture");
+    assertTrue(fixture.getClassLoader() == loader);
+    Package pkg = fixture.getPackage();
+    assertEquals("fixture", pkg.getName());
+    assertEquals("Fixture", pkg.getImplementationTitle());
+    assertEquals("1.2.3", pkg.getImplementationVersion());
+    assertEquals("4.5", pkg.getSpecificationVersion());
+    assertNull(pkg.getSpecificationVendor());
+  }
+
+
+  /**
+   * @return the bytes of the compiled class <code>fixture.Fixture</code>,
+   *         or <code>null</code>, if no compiler is available
+   */
+  private byte[] compile() throws IOException
+  {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null)
+      return null;
+    File source = new File(dir, "Fixture.java");
+    OutputStream os = new FileOutputStream(source);
+    try
+    {
+      os.write("package fixture; public class Fixture {}".getBytes("UTF-8"));
+    }
+    finally
+    {
+      os.close();
+    }
+    int result =
+        compiler.run(null, null, null, "-d", dir.getPath(), source.getPath());
+    assertEquals("compilation failed", 0, result);
+    InputStream is = new FileInputStream(new File(dir, "fixture/Fixture.class"));
+    try
+    {
+      return ClassScanner.read(is, -1);
+    }
+    finally
+    {
+      is.close();
+    }
+  }
+
+  private static String read(InputStream is) throws IOException
+  {
+    try
+    {
+      return new String(ClassScanner.read(is, -1), "UTF-8");
+    }
+    finally
+    {
+      is.close();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package de.juplo.plugins.hibernate;
+
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+
+
+/**
+ * Tests for the matching of the {@link PackageFilter}.
+ */
+public class PackageFilterTest
+{
+  @Test
+  public void testEmpty()
+  {
+    PackageFilter filter = new PackageFilter(null, " ");
+    assertTrue(filter.isEmpty());
+    assertTrue(filter.accepts(""));
+    assertTrue(filter.accepts("com.acme"));
+    assertFalse(filter.skips("com"));
+  }
+
+  @Test
+  public void testSubPackages()
+  {
+    PackageFilter filter = new PackageFilter("com.acme.domain.**", null);
+    assertFalse(filter.isEmpty());
+    assertTrue(filter.accepts("com.acme.domain"));
+    assertTrue(filter.accepts("com.acme.domain.order"));
+    assertTrue(filter.accepts("com.acme.domain.order.item"));
+    assertFalse(filter.accepts("com.acme"));
+    assertFalse(filter.accepts("com.acme.domainx"));
+    assertFalse(filter.accepts("org.acme.domain"));
+  }
+
+  @Test
+  public void testWildcards()
+  {
+    PackageFilter filter = new PackageFilter("com.acme.*.model, org.*x*", null);
+    assertTrue(filter.accepts("com.acme.shop.model"));
+    assertTrue(filter.accepts("com.acme.a.model"));
+    assertFalse(filter.accepts("com.acme.model"));
+    assertFalse(filter.accepts("com.acme.shop.sub.model"));
+    assertTrue(filter.accepts("org.x"));
+    assertTrue(filter.accepts("org.example"));
+    assertFalse(filter.accepts("org.acme"));
+    assertFalse(filter.accepts("org.example.sub"));
+  }
+
+  @Test
+  public void testExcludes()
+  {
+    PackageFilter filter =
+        new PackageFilter("com.acme.**", "com.acme.test.**\tcom.acme.*.impl");
+    assertTrue(filter.accepts("com.acme"));
+    assertTrue(filter.accepts("com.acme.shop"));
+    assertFalse(filter.accepts("com.acme.test"));
+    assertFalse(filter.accepts("com.acme.test.sub"));
+    assertFalse(filter.accepts("com.acme.shop.impl"));
+    assertTrue(filter.accepts("com.acme.shop.impl.sub"));
+  }
+
+  @Test
+  public void testClassesAndPaths()
+  {
+    PackageFilter filter = new PackageFilter("com.acme.**", null);
+    assertTrue(filter.acceptsClass("com.acme.Foo"));
+    assertTrue(filter.acceptsClass("com.acme.domain.Foo"));
+    assertFalse(filter.acceptsClass("org.acme.Foo"));
+    assertFalse(filter.acceptsClass("Foo"));
+    assertTrue(filter.acceptsPath("com/acme/domain/Foo.class"));
+    assertFalse(filter.acceptsPath("org/acme/Foo.class"));
+    assertFalse(filter.acceptsPath("Foo.class"));
+  }
+
+  @Test
+  public void testSkips()
+  {
+    PackageFilter filter =
+        new PackageFilter("com.acme.domain.**", "com.acme.domain.test.**");
+    assertFalse(filter.skips(""));
+    assertFalse(filter.skips("com"));
+    assertFalse(filter.skips("com.acme"));
+    assertFalse(filter.skips("com.acme.domain"));
+    assertFalse(filter.skips("com.acme.domain.order"));
+    assertTrue(filter.skips("org"));
+    assertTrue(filter.skips("com.other"));
+    assertTrue(filter.skips("com.acme.domain.test"));
+    assertTrue(filter.skips("com.acme.domain.test.sub"));
+
+    /** An exclude without trailing ** cannot prune its sub-packages */
+    filter = new PackageFilter(null, "com.acme.*.impl");
+    assertFalse(filter.skips("com.acme.shop.impl"));
+    assertFalse(filter.accepts("com.acme.shop.impl"));
+  }
+}
@@ -0,0 +1,54 @@
+package de.juplo.plugins.hibernate;
+
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+
+
+/**
+ * Log for the tests, that only prints warnings and errors.
+ */
+class QuietLog extends SystemStreamLog
+{
+  @Override
+  public boolean isDebugEnabled()
+  {
+    return false;
+  }
+
+  @Override
+  public void debug(CharSequence content)
+  {
+  }
+
+  @Override
+  public void debug(CharSequence content, Throwable error)
+  {
+  }
+
+  @Override
+  public void debug(Throwable error)
+  {
+  }
+
+  @Override
+  public boolean isInfoEnabled()
+  {
+    return false;
+  }
+
+  @Override
+  public void info(CharSequence content)
+  {
+  }
+
+  @Override
+  public void info(CharSequence content, Throwable error)
+  {
+  }
+
+  @Override
+  public void info(Throwable error)
+  {
+  }
+}
@@ -0,0 +1,178 @@
+package de.juplo.plugins.hibernate;
+
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.apache.maven.plugin.logging.Log;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+
+/**
+ * Tests for the store of the {@link ScanManifest}.
+ */
+public class ScanManifestTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Log log = new QuietLog();
+
+  private File dir;
+  private File annotated;
+  private File plain;
+
+
+  @Before
+  public void setUp() throws IOException
+  {
+    dir = folder.getRoot();
+    annotated = write("Annotated.class", "annotated");
+    plain = write("Plain.class", "plain");
+  }
+
+
+  @Test
+  public void testRoundTrip()
+  {
+    ScanManifest manifest = manifest();
+    manifest.load();
+    assertNull(manifest.lookup(annotated));
+    record(manifest, annotated, "test.Annotated");
+    record(manifest, plain, null);
+    manifest.save();
+
+    manifest = manifest();
+    manifest.load();
+    ScanManifest.Entry entry = manifest.lookup(annotated);
+    assertNotNull(entry);
+    assertEquals("test.Annotated", entry.name);
+    entry = manifest.lookup(plain);
+    assertNotNull(entry);
+    assertNull(entry.name);
+  }
+
+  @Test
+  public void testChangedFile() throws IOException
+  {
+    ScanManifest manifest = manifest();
+    record(manifest, annotated, "test.Annotated");
+    manifest.save();
+
+    write(annotated.getName(), "changed content");
+
+    manifest = manifest();
+    manifest.load();
+    assertNull(manifest.lookup(annotated));
+  }
+
+  @Test
+  public void testVisitedEntriesOnly()
+  {
+    ScanManifest manifest = manifest();
+    record(manifest, annotated, "test.Annotated");
+    record(manifest, plain, null);
+    manifest.save();
+
+    /** Only the annotated class is visited: the other entry drops out */
+    manifest = manifest();
+    manifest.load();
+    assertNotNull(manifest.lookup(annotated));
+    manifest.save();
+
+    manifest = manifest();
+    manifest.load();
+    assertNotNull(manifest.lookup(annotated));
+    assertNull(manifest.lookup(plain));
+  }
+
+  @Test
+  public void testAdopt()
+  {
+    ScanManifest scanned = manifest();
+    record(scanned, annotated, "test.Annotated");
+    record(scanned, plain, null);
+
+    ScanManifest reused = new ScanManifest(dir.getPath(), "reused", log);
+    reused.load();
+    reused.adopt(scanned);
+    reused.save();
+
+    reused = new ScanManifest(dir.getPath(), "reused", log);
+    reused.load();
+    assertEquals("test.Annotated", reused.lookup(annotated).name);
+    assertNotNull(reused.lookup(plain));
+  }
+
+  @Test
+  public void testUnknownVersion() throws IOException
+  {
+    DataOutputStream dos =
+        new DataOutputStream(
+            new FileOutputStream(new File(dir, "test.manifest")));
+    try
+    {
+      dos.writeInt(-1);
+      dos.writeInt(1);
+      dos.writeUTF(annotated.getPath());
+    }
+    finally
+    {
+      dos.close();
+    }
+
+    ScanManifest manifest = manifest();
+    manifest.load();
+    assertNull(manifest.lookup(annotated));
+  }
+
+  @Test
+  public void testTruncatedStore() throws IOException
+  {
+    ScanManifest manifest = manifest();
+    record(manifest, annotated, "test.Annotated");
+    manifest.save();
+
+    /** Version 2, but the count is cut off */
+    write("test.manifest", "\u0000\u0000\u0000\u0002\u0000\u0000");
+
+    manifest = manifest();
+    manifest.load();
+    assertNull(manifest.lookup(annotated));
+  }
+
+
+  private ScanManifest manifest()
+  {
+    return new ScanManifest(dir.getPath(), "test", log);
+  }
+
+  private static void record(ScanManifest manifest, File file, String name)
+  {
+    manifest.record(file, file.length(), file.lastModified(), name);
+  }
+
+  private File write(String name, String content) throws IOException
+  {
+    File file = new File(dir, name);
+    OutputStream os = new FileOutputStream(file);
+    try
+    {
+      os.write(content.getBytes("UTF-8"));
+    }
+    finally
+    {
+      os.close();
+    }
+    return file;
+  }
+}